@@ -0,0 +1,8 @@
+package com.citusdata.migration;
+
+public enum ApplyMode {
+
+	statements,
+	transaction,
+	merge
+}
@@ -0,0 +1,48 @@
+/**
+ *
+ */
+package com.citusdata.migration;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+/*
+ * CapacityBudget is a rate limit that is shared by the data loads of all
+ * tables, for example the read capacity units per second that may be used
+ * across the account or the rows per second that may be written to the
+ * database. A budget with a non-positive rate is unlimited.
+ */
+public class CapacityBudget {
+
+	public static final CapacityBudget UNLIMITED = new CapacityBudget("unlimited", 0);
+
+	public final String name;
+	final RateLimiter rateLimiter;
+
+	public CapacityBudget(String name, double permitsPerSecond) {
+		this.name = name;
+		this.rateLimiter = permitsPerSecond > 0 ? RateLimiter.create(permitsPerSecond) : null;
+	}
+
+	/*
+	 * acquire waits until the given number of permits is available in the
+	 * budget.
+	 */
+	public void acquire(long permits) {
+		if (rateLimiter != null && permits > 0) {
+			rateLimiter.acquire((int) Math.min(permits, Integer.MAX_VALUE));
+		}
+	}
+
+	public boolean isLimited() {
+		return rateLimiter != null;
+	}
+
+	public String toString() {
+		if (rateLimiter == null) {
+			return name + ": unlimited";
+		}
+
+		return String.format("%s: %.1f/sec", name, rateLimiter.getRate());
+	}
+
+}
@@ -0,0 +1,140 @@
+/**
+ *
+ */
+package com.citusdata.migration;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.citusdata.migration.datamodel.PrimaryKeyValue;
+import com.citusdata.migration.datamodel.TableModification;
+
+/*
+ * ChangeBuffer holds the latest change to each key of a stream shard for a
+ * time window before it is applied, such that a key that is modified many
+ * times within the window is only written once. The buffer is flushed when
+ * the window since the first buffered change expires, when it holds the
+ * maximum number of keys, or when the JVM runs low on memory.
+ *
+ * Changes are flushed in the order of the last change to each key, in the
+ * same way as ModificationCoalescer orders changes within a batch.
+ */
+public class ChangeBuffer {
+
+	/* fraction of the maximum heap above which the buffer is flushed */
+	static final double MAX_HEAP_FRACTION = 0.8;
+
+	final long windowMillis;
+	final int maxKeys;
+
+	final LinkedHashMap<PrimaryKeyValue,TableModification> changes;
+
+	/* number of changes added since the last flush, including overwritten ones */
+	long numChanges;
+
+	/* time at which the first change since the last flush was added */
+	long windowStartMillis;
+
+	public ChangeBuffer(long windowMillis, int maxKeys) {
+		if (maxKeys < 1) {
+			throw new IllegalArgumentException("change buffer needs to hold at least 1 key");
+		}
+
+		this.windowMillis = windowMillis;
+		this.maxKeys = maxKeys;
+		this.changes = new LinkedHashMap<>();
+	}
+
+	/*
+	 * add buffers the given changes, replacing earlier changes to the same key.
+	 */
+	public void add(List<TableModification> modifications) {
+		if (modifications.isEmpty()) {
+			return;
+		}
+
+		if (changes.isEmpty()) {
+			windowStartMillis = System.currentTimeMillis();
+		}
+
+		for (TableModification modification : modifications) {
+			/* remove first to move the key to the end of the flush order */
+			changes.remove(modification.getPrimaryKeyValue());
+			changes.put(modification.getPrimaryKeyValue(), modification);
+		}
+
+		numChanges += modifications.size();
+	}
+
+	/*
+	 * shouldFlush returns whether the window expired or the buffer is under
+	 * memory pressure.
+	 */
+	public boolean shouldFlush() {
+		if (changes.isEmpty()) {
+			return false;
+		}
+
+		return getAgeMillis() >= windowMillis || changes.size() >= maxKeys || isMemoryLow();
+	}
+
+	/*
+	 * isMemoryLow returns whether the JVM uses more than MAX_HEAP_FRACTION of
+	 * its maximum heap.
+	 */
+	boolean isMemoryLow() {
+		Runtime runtime = Runtime.getRuntime();
+
+		return isMemoryLow(runtime.totalMemory() - runtime.freeMemory(), runtime.maxMemory());
+	}
+
+	static boolean isMemoryLow(long usedMemory, long maxMemory) {
+		return usedMemory > maxMemory * MAX_HEAP_FRACTION;
+	}
+
+	/*
+	 * drain removes and returns the buffered changes.
+	 */
+	public List<TableModification> drain() {
+		List<TableModification> lastModifications = new ArrayList<>(changes.size());
+
+		for (Map.Entry<PrimaryKeyValue,TableModification> entry : changes.entrySet()) {
+			lastModifications.add(entry.getValue());
+		}
+
+		changes.clear();
+		numChanges = 0;
+
+		return lastModifications;
+	}
+
+	/*
+	 * getAgeMillis returns the time since the oldest buffered change was added.
+	 */
+	public long getAgeMillis() {
+		if (changes.isEmpty()) {
+			return 0;
+		}
+
+		return System.currentTimeMillis() - windowStartMillis;
+	}
+
+	/*
+	 * getChangeCount returns the number of changes added since the last flush,
+	 * including changes that were overwritten by a later change.
+	 */
+	public long getChangeCount() {
+		return numChanges;
+	}
+
+	public int size() {
+		return changes.size();
+	}
+
+	public boolean isEmpty() {
+		return changes.isEmpty();
+	}
+
+}
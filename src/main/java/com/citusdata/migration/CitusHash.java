@@ -0,0 +1,188 @@
+/**
+ *
+ */
+package com.citusdata.migration;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+import com.citusdata.migration.datamodel.TableColumnValue;
+
+/*
+ * CitusHash computes the hash values that Citus uses to assign a value of a
+ * distribution column to a shard. These are the hash functions of PostgreSQL
+ * for the column type: hashtext for text, hashvarlena for bytea, hash_numeric
+ * for numeric and hashchar for boolean, which are all built on hash_bytes
+ * (Bob Jenkins' lookup3). Text is assumed to be hashed in UTF-8 using a
+ * deterministic collation.
+ */
+public class CitusHash {
+
+	static final int NBASE = 10000;
+	static final BigInteger BIG_NBASE = BigInteger.valueOf(NBASE);
+
+	/*
+	 * hashValue returns the hash of a value of a distribution column.
+	 */
+	public static int hashValue(TableColumnValue value) {
+		switch (value.type) {
+		case text:
+			return hashBytes(value.datum.toString().getBytes(StandardCharsets.UTF_8));
+
+		case bytea:
+			return hashBytes(value.toByteArray());
+
+		case numeric:
+			if (value.datum instanceof BigDecimal) {
+				return hashNumeric((BigDecimal) value.datum);
+			}
+
+			return hashNumeric(new BigDecimal(value.datum.toString()));
+
+		case bool:
+			return hashUint32(Boolean.parseBoolean(value.datum.toString()) ? 1 : 0);
+
+		default:
+			throw new IllegalArgumentException("cannot compute the Citus hash of type " + value.type);
+		}
+	}
+
+	/*
+	 * hashNumeric ports hash_numeric, which hashes the base-10000 digits of the
+	 * value without leading and trailing zeros and mixes in the weight of the
+	 * first digit. The sign and display scale are not part of the hash.
+	 */
+	public static int hashNumeric(BigDecimal value) {
+		BigInteger digits = value.unscaledValue().abs();
+
+		if (digits.signum() == 0) {
+			return -1;
+		}
+
+		/* align the scale to whole base-10000 digits */
+		int scale = value.scale();
+		int alignedScale = scale >= 0 ? (scale + 3) / 4 * 4 : -(-scale / 4 * 4);
+		digits = digits.multiply(BigInteger.TEN.pow(alignedScale - scale));
+
+		/* extract the digits, least significant first, skipping trailing zeros */
+		short[] reversedDigits = new short[digits.bitLength() / 13 + 2];
+		int numDigits = 0;
+		int numTrailingZeros = 0;
+
+		while (digits.signum() > 0) {
+			BigInteger[] quotientAndRemainder = digits.divideAndRemainder(BIG_NBASE);
+			short digit = quotientAndRemainder[1].shortValue();
+
+			if (numDigits == 0 && digit == 0) {
+				numTrailingZeros++;
+			} else {
+				reversedDigits[numDigits++] = digit;
+			}
+
+			digits = quotientAndRemainder[0];
+		}
+
+		int weight = numDigits + numTrailingZeros - 1 - alignedScale / 4;
+
+		/* NumericDigit is an int16, hashed in little-endian byte order */
+		byte[] digitBytes = new byte[numDigits * 2];
+
+		for (int i = 0; i < numDigits; i++) {
+			short digit = reversedDigits[numDigits - 1 - i];
+			digitBytes[2 * i] = (byte) digit;
+			digitBytes[2 * i + 1] = (byte) (digit >> 8);
+		}
+
+		return hashBytes(digitBytes) ^ weight;
+	}
+
+	/*
+	 * hashUint32 ports hash_bytes_uint32, which is used for 4-byte and smaller
+	 * integer types.
+	 */
+	public static int hashUint32(int k) {
+		int a = 0x9e3779b9 + 4 + 3923095;
+		int b = a;
+		int c = a;
+
+		a += k;
+
+		return finalMix(a, b, c);
+	}
+
+	/*
+	 * hashBytes ports hash_bytes, assuming a little-endian server.
+	 */
+	public static int hashBytes(byte[] k) {
+		int len = k.length;
+		int a = 0x9e3779b9 + len + 3923095;
+		int b = a;
+		int c = a;
+		int offset = 0;
+
+		while (len >= 12) {
+			a += readInt(k, offset);
+			b += readInt(k, offset + 4);
+			c += readInt(k, offset + 8);
+
+			/* mix(a, b, c) */
+			a -= c; a ^= Integer.rotateLeft(c, 4); c += b;
+			b -= a; b ^= Integer.rotateLeft(a, 6); a += c;
+			c -= b; c ^= Integer.rotateLeft(b, 8); b += a;
+			a -= c; a ^= Integer.rotateLeft(c, 16); c += b;
+			b -= a; b ^= Integer.rotateLeft(a, 19); a += c;
+			c -= b; c ^= Integer.rotateLeft(b, 4); b += a;
+
+			offset += 12;
+			len -= 12;
+		}
+
+		/* the lowest byte of c is reserved for the length */
+		switch (len) {
+		case 11:
+			c += (k[offset + 10] & 0xff) << 24;
+		case 10:
+			c += (k[offset + 9] & 0xff) << 16;
+		case 9:
+			c += (k[offset + 8] & 0xff) << 8;
+		case 8:
+			b += (k[offset + 7] & 0xff) << 24;
+		case 7:
+			b += (k[offset + 6] & 0xff) << 16;
+		case 6:
+			b += (k[offset + 5] & 0xff) << 8;
+		case 5:
+			b += k[offset + 4] & 0xff;
+		case 4:
+			a += (k[offset + 3] & 0xff) << 24;
+		case 3:
+			a += (k[offset + 2] & 0xff) << 16;
+		case 2:
+			a += (k[offset + 1] & 0xff) << 8;
+		case 1:
+			a += k[offset] & 0xff;
+		}
+
+		return finalMix(a, b, c);
+	}
+
+	static int readInt(byte[] k, int offset) {
+		return (k[offset] & 0xff) | (k[offset + 1] & 0xff) << 8 |
+				(k[offset + 2] & 0xff) << 16 | (k[offset + 3] & 0xff) << 24;
+	}
+
+	/* final(a, b, c) of lookup3 */
+	static int finalMix(int a, int b, int c) {
+		c ^= b; c -= Integer.rotateLeft(b, 14);
+		a ^= c; a -= Integer.rotateLeft(c, 11);
+		b ^= a; b -= Integer.rotateLeft(a, 25);
+		c ^= b; c -= Integer.rotateLeft(b, 16);
+		a ^= c; a -= Integer.rotateLeft(c, 4);
+		b ^= a; b -= Integer.rotateLeft(a, 14);
+		c ^= b; c -= Integer.rotateLeft(b, 24);
+
+		return c;
+	}
+
+}
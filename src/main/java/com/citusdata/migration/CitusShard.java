@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package com.citusdata.migration;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.citusdata.migration.datamodel.TableSchema;
+
+/*
+ * CitusShard is a shard of a hash-distributed Citus table: the range of hash
+ * values of the distribution column that it contains and the worker nodes on
+ * which it is placed.
+ */
+public class CitusShard {
+
+	public final long shardId;
+	public final int minValue;
+	public final int maxValue;
+	public final List<CitusPlacement> placements;
+
+	public CitusShard(long shardId, int minValue, int maxValue) {
+		this.shardId = shardId;
+		this.minValue = minValue;
+		this.maxValue = maxValue;
+		this.placements = new ArrayList<>();
+	}
+
+	public boolean contains(int hashValue) {
+		return minValue <= hashValue && hashValue <= maxValue;
+	}
+
+	/*
+	 * getShardTableName returns the name of the table that holds the shard on
+	 * the worker nodes, or null if Citus shortens the name because it is too
+	 * long. The length limit of identifiers is in bytes, not characters.
+	 */
+	public String getShardTableName(TableSchema tableSchema) {
+		String shardTableName = tableSchema.tableName + "_" + shardId;
+
+		if (shardTableName.getBytes(StandardCharsets.UTF_8).length > TableSchema.MAX_IDENTIFIER_BYTES) {
+			return null;
+		}
+
+		StringBuilder sb = new StringBuilder();
+
+		if (tableSchema.schemaName != null) {
+			sb.append(TableSchema.quoteIdentifier(tableSchema.schemaName));
+			sb.append('.');
+		}
+
+		sb.append(TableSchema.quoteIdentifier(shardTableName));
+
+		return sb.toString();
+	}
+
+	public String toString() {
+		return String.format("shard %d [%d, %d] on %s", shardId, minValue, maxValue, placements);
+	}
+
+	/*
+	 * CitusPlacement is a worker node that holds a copy of the shard.
+	 */
+	public static class CitusPlacement {
+		public final String nodeName;
+		public final int nodePort;
+
+		public CitusPlacement(String nodeName, int nodePort) {
+			this.nodeName = nodeName;
+			this.nodePort = nodePort;
+		}
+
+		public String toString() {
+			return nodeName + ":" + nodePort;
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+/**
+ *
+ */
+package com.citusdata.migration;
+
+import java.util.List;
+
+import com.citusdata.migration.datamodel.PrimaryKeyValue;
+import com.citusdata.migration.datamodel.TableColumnValue;
+import com.citusdata.migration.datamodel.TableSchema;
+
+/*
+ * CitusShardRouter finds the shard of a hash-distributed Citus table that a
+ * key belongs to, by computing the same hash of the distribution column as
+ * Citus and looking it up in the hash ranges of the shards.
+ */
+public class CitusShardRouter {
+
+	final TableSchema tableSchema;
+
+	/* shards ordered by the start of their hash range */
+	final CitusShard[] shards;
+
+	public CitusShardRouter(TableSchema tableSchema, List<CitusShard> shards) {
+		if (tableSchema.getDistributionColumn() == null) {
+			throw new IllegalArgumentException("table " + tableSchema.tableName + " is not distributed");
+		}
+
+		if (shards.isEmpty()) {
+			throw new IllegalArgumentException("table " + tableSchema.tableName + " has no shards");
+		}
+
+		this.tableSchema = tableSchema;
+		this.shards = shards.toArray(new CitusShard[shards.size()]);
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	public CitusShard getShard(int shardIndex) {
+		return shards[shardIndex];
+	}
+
+	/*
+	 * shardIndex returns the index of the shard that contains the given key,
+	 * or -1 if the key has no distribution column value or no shard covers
+	 * its hash.
+	 */
+	public int shardIndex(PrimaryKeyValue primaryKeyValue) {
+		TableColumnValue value = primaryKeyValue.getValue(tableSchema.getDistributionColumn().name);
+
+		if (value == null) {
+			return -1;
+		}
+
+		return shardIndex(CitusHash.hashValue(value));
+	}
+
+	/*
+	 * shardIndex returns the index of the shard whose hash range contains the
+	 * given hash value, or -1 if there is none.
+	 */
+	public int shardIndex(int hashValue) {
+		int low = 0;
+		int high = shards.length - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			CitusShard shard = shards[middle];
+
+			if (hashValue < shard.minValue) {
+				high = middle - 1;
+			} else if (hashValue > shard.maxValue) {
+				low = middle + 1;
+			} else {
+				return middle;
+			}
+		}
+
+		return -1;
+	}
+
+}
@@ -0,0 +1,103 @@
+/**
+ *
+ */
+package com.citusdata.migration;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.citusdata.migration.CitusShard.CitusPlacement;
+
+/*
+ * CitusWorkerPool holds connections to the worker nodes of a Citus cluster,
+ * such that shards can be loaded directly on the workers without passing
+ * through the coordinator. Connections use the JDBC URL of the coordinator
+ * with the host and port of the worker, and are opened when a worker is first
+ * used.
+ */
+public class CitusWorkerPool {
+
+	static final Pattern JDBC_URL_PATTERN = Pattern.compile("^(jdbc:postgresql://)[^/]*(/.*)?$");
+
+	final String coordinatorUrl;
+	final int connectionsPerWorker;
+	final CopyFormat copyFormat;
+
+	/* connections of each worker by host and port */
+	final Map<String,List<JDBCTableEmitter>> workerEmitters;
+
+	public CitusWorkerPool(String coordinatorUrl, int connectionsPerWorker, CopyFormat copyFormat) {
+		if (connectionsPerWorker < 1) {
+			throw new IllegalArgumentException("at least 1 connection per worker is needed");
+		}
+
+		if (!JDBC_URL_PATTERN.matcher(coordinatorUrl).matches()) {
+			throw new IllegalArgumentException("unsupported JDBC URL: " + coordinatorUrl);
+		}
+
+		this.coordinatorUrl = coordinatorUrl;
+		this.connectionsPerWorker = connectionsPerWorker;
+		this.copyFormat = copyFormat;
+		this.workerEmitters = new HashMap<>();
+	}
+
+	/*
+	 * getEmitter returns a connection to the worker of the given placement.
+	 * Shards are spread over the connections of a worker by their index.
+	 */
+	public synchronized JDBCTableEmitter getEmitter(CitusPlacement placement, int shardIndex) {
+		String workerKey = placement.toString();
+		List<JDBCTableEmitter> emitters = workerEmitters.get(workerKey);
+
+		if (emitters == null) {
+			emitters = new ArrayList<>(connectionsPerWorker);
+
+			try {
+				for (int i = 0; i < connectionsPerWorker; i++) {
+					JDBCTableEmitter emitter = new JDBCTableEmitter(workerUrl(placement));
+					emitter.setCopyFormat(copyFormat);
+					emitters.add(emitter);
+				}
+			} catch (SQLException e) {
+				for (JDBCTableEmitter emitter : emitters) {
+					emitter.close();
+				}
+
+				throw new EmissionException(e);
+			}
+
+			workerEmitters.put(workerKey, emitters);
+		}
+
+		return emitters.get(shardIndex % emitters.size());
+	}
+
+	/*
+	 * workerUrl returns the coordinator URL with the host and port replaced by
+	 * those of the worker.
+	 */
+	String workerUrl(CitusPlacement placement) {
+		Matcher matcher = JDBC_URL_PATTERN.matcher(coordinatorUrl);
+		matcher.matches();
+
+		String path = matcher.group(2) != null ? matcher.group(2) : "/";
+
+		return matcher.group(1) + placement.nodeName + ":" + placement.nodePort + path;
+	}
+
+	public synchronized void close() {
+		for (List<JDBCTableEmitter> emitters : workerEmitters.values()) {
+			for (JDBCTableEmitter emitter : emitters) {
+				emitter.close();
+			}
+		}
+
+		workerEmitters.clear();
+	}
+
+}
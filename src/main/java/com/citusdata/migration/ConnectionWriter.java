@@ -0,0 +1,118 @@
+/**
+ *
+ */
+package com.citusdata.migration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.citusdata.migration.datamodel.TableEmitter;
+
+/*
+ * ConnectionWriter drives the writes of a single emitter from its own thread.
+ * Writes are queued in a bounded queue and executed in the order in which
+ * they were submitted. When the queue is full, submitting a write blocks
+ * until the writer catches up, which keeps the amount of pending changes
+ * bounded.
+ */
+public class ConnectionWriter implements Runnable {
+
+	final TableEmitter emitter;
+	final BlockingQueue<Write> writeQueue;
+	final Thread thread;
+
+	/* number of writes that are queued or running */
+	final AtomicInteger pendingWrites;
+
+	public ConnectionWriter(TableEmitter emitter, int queueSize, ThreadFactory threadFactory) {
+		if (queueSize < 1) {
+			throw new IllegalArgumentException("writer queue size must be at least 1");
+		}
+
+		this.emitter = emitter;
+		this.writeQueue = new ArrayBlockingQueue<>(queueSize);
+		this.pendingWrites = new AtomicInteger();
+		this.thread = threadFactory.newThread(this);
+		this.thread.start();
+	}
+
+	/*
+	 * submit queues a write and returns a future that completes with its
+	 * result once the write is executed.
+	 */
+	public CompletableFuture<Long> submit(Callable<Long> operation) {
+		Write write = new Write(operation);
+
+		pendingWrites.incrementAndGet();
+
+		try {
+			writeQueue.put(write);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			pendingWrites.decrementAndGet();
+			write.result.completeExceptionally(new EmissionException(e));
+		}
+
+		return write.result;
+	}
+
+	public int getPendingWriteCount() {
+		return pendingWrites.get();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			Write write;
+
+			try {
+				write = writeQueue.take();
+			} catch (InterruptedException e) {
+				break;
+			}
+
+			if (write.operation == null) {
+				break;
+			}
+
+			try {
+				synchronized (emitter) {
+					write.result.complete(write.operation.call());
+				}
+			} catch (EmissionException e) {
+				write.result.completeExceptionally(e);
+			} catch (Exception e) {
+				write.result.completeExceptionally(new EmissionException(e));
+			} finally {
+				pendingWrites.decrementAndGet();
+			}
+		}
+	}
+
+	/*
+	 * shutdown waits for the queued writes to finish and stops the writer.
+	 */
+	public void shutdown() {
+		try {
+			writeQueue.put(new Write(null));
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static class Write {
+		final Callable<Long> operation;
+		final CompletableFuture<Long> result;
+
+		Write(Callable<Long> operation) {
+			this.operation = operation;
+			this.result = new CompletableFuture<>();
+		}
+	}
+
+}
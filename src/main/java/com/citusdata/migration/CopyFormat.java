@@ -0,0 +1,7 @@
+package com.citusdata.migration;
+
+public enum CopyFormat {
+
+	text,
+	binary
+}
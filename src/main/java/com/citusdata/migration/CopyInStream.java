@@ -0,0 +1,112 @@
+/**
+ *
+ */
+package com.citusdata.migration;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+
+import org.postgresql.copy.CopyIn;
+
+/*
+ * CopyInStream is an OutputStream that sends its output to an ongoing COPY
+ * through a buffer that is reused across COPY commands, such that rows can be
+ * encoded straight into the COPY data without materialising a batch on the
+ * heap.
+ */
+public class CopyInStream extends OutputStream {
+
+	static final int DEFAULT_BUFFER_SIZE = 65536;
+
+	final byte[] buffer;
+	int position;
+	CopyIn copyIn;
+
+	public CopyInStream() {
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	public CopyInStream(int bufferSize) {
+		this.buffer = new byte[bufferSize];
+		this.position = 0;
+		this.copyIn = null;
+	}
+
+	/*
+	 * start directs the output of the stream to a new COPY, discarding
+	 * anything that was left in the buffer by a previous COPY.
+	 */
+	public void start(CopyIn copyIn) {
+		this.copyIn = copyIn;
+		this.position = 0;
+	}
+
+	/*
+	 * finish sends the remaining buffered bytes and detaches the stream from
+	 * the COPY.
+	 */
+	public void finish() throws IOException {
+		flushBuffer();
+		this.copyIn = null;
+	}
+
+	/*
+	 * abort detaches the stream from the COPY without sending the remaining
+	 * buffered bytes.
+	 */
+	public void abort() {
+		this.copyIn = null;
+		this.position = 0;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (position == buffer.length) {
+			flushBuffer();
+		}
+
+		buffer[position++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		if (length >= buffer.length) {
+			flushBuffer();
+			writeToCopy(bytes, offset, length);
+			return;
+		}
+
+		if (length > buffer.length - position) {
+			flushBuffer();
+		}
+
+		System.arraycopy(bytes, offset, buffer, position, length);
+		position += length;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+	}
+
+	void flushBuffer() throws IOException {
+		if (position > 0) {
+			writeToCopy(buffer, 0, position);
+			position = 0;
+		}
+	}
+
+	void writeToCopy(byte[] bytes, int offset, int length) throws IOException {
+		if (copyIn == null) {
+			throw new IOException("no COPY in progress");
+		}
+
+		try {
+			copyIn.writeToCopy(bytes, offset, length);
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,457 @@
+/**
+ *
+ */
+package com.citusdata.migration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.citusdata.migration.datamodel.TableRowBatch;
+
+/*
+ * DataLoadPipeline performs the initial data load of a table as three stages
+ * that run concurrently and are connected by bounded queues:
+ *
+ * - scanners read pages from DynamoDB, one worker per scan segment
+ * - converters add new columns and convert items into rows
+ * - writers coalesce pages into larger batches and load them using COPY
+ *
+ * The next scan page is therefore already being read while the previous one
+ * is converted and loaded. When a queue is full, the stage before it blocks
+ * until the next stage catches up.
+ *
+ * Each segment starts from its saved cursor and the cursors are saved again
+ * after the pages before them are loaded. A load that resumes from saved
+ * cursors, or that starts on a table that already has rows, may scan pages
+ * that were loaded before the previous run stopped. If COPY fails on such a
+ * page because rows already exist, the batch is upserted instead. The same
+ * applies to sequenced tables, where rows may already have been written by
+ * changes, and the upsert does not overwrite rows that changes wrote.
+ */
+public class DataLoadPipeline {
+
+	private static final Log LOG = LogFactory.getLog(DataLoadPipeline.class);
+
+	static final long REPORT_INTERVAL_MILLIS = 30000;
+
+	/* marks the end of the input of a stage */
+	static final ScanPage END_OF_PAGES = new ScanPage(-1, -1, null, null);
+	static final LoadBatch END_OF_BATCHES = new LoadBatch();
+
+	static final String UNIQUE_VIOLATION = "23505";
+
+	final DynamoDBTableReplicator replicator;
+	final ExecutorService executor;
+	final ReadCapacityController capacityController;
+	final List<ScanCursor> startCursors;
+	final ScanProgress progress;
+	final boolean resumed;
+	final int totalSegments;
+	final int converterCount;
+	final int writerCount;
+
+	final BlockingQueue<ScanPage> pageQueue;
+	final BlockingQueue<LoadBatch> batchQueue;
+
+	final PipelineStage scanStage;
+	final PipelineStage convertStage;
+	final PipelineStage copyStage;
+
+	final AtomicInteger activeScanners;
+	final AtomicInteger activeConverters;
+
+	/* set when a worker failed and the other workers are being cancelled */
+	volatile boolean cancelled;
+
+	final Histogram batchRowsHistogram;
+	final Histogram batchBytesHistogram;
+
+	int maxBatchRows;
+	long maxBatchBytes;
+	long maxBatchNanos;
+	CapacityBudget writeBudget;
+
+	public DataLoadPipeline(
+			DynamoDBTableReplicator replicator,
+			ExecutorService executor,
+			ReadCapacityController capacityController,
+			List<ScanCursor> startCursors,
+			boolean resumed,
+			int converterCount,
+			int writerCount,
+			int queueSize) {
+		this.replicator = replicator;
+		this.executor = executor;
+		this.capacityController = capacityController;
+		this.startCursors = startCursors;
+		this.totalSegments = startCursors.size();
+		this.progress = new ScanProgress(replicator, totalSegments);
+		this.resumed = resumed;
+		this.converterCount = converterCount;
+		this.writerCount = writerCount;
+		this.pageQueue = new ArrayBlockingQueue<>(queueSize);
+		this.batchQueue = new ArrayBlockingQueue<>(queueSize);
+		this.scanStage = new PipelineStage("scan");
+		this.convertStage = new PipelineStage("convert");
+		this.copyStage = new PipelineStage("copy");
+		this.activeScanners = new AtomicInteger(this.totalSegments);
+		this.activeConverters = new AtomicInteger(converterCount);
+		this.batchRowsHistogram = new Histogram("COPY batch rows");
+		this.batchBytesHistogram = new Histogram("COPY batch bytes");
+		this.maxBatchRows = 1;
+		this.maxBatchBytes = 0;
+		this.maxBatchNanos = 0;
+		this.writeBudget = CapacityBudget.UNLIMITED;
+	}
+
+	/*
+	 * setWriteBudget sets the budget for the number of rows per second that
+	 * the writers load into the database, which may be shared with the data
+	 * loads of other tables.
+	 */
+	public void setWriteBudget(CapacityBudget writeBudget) {
+		this.writeBudget = writeBudget;
+	}
+
+	/*
+	 * setCopyBatchLimits makes the writers coalesce converted scan pages into
+	 * batches of at most maxRows rows or maxBytes bytes. A batch is loaded
+	 * after at most maxMillis even if it is not full. By default, every scan
+	 * page is loaded as a separate batch.
+	 */
+	public void setCopyBatchLimits(int maxRows, long maxBytes, long maxMillis) {
+		this.maxBatchRows = maxRows;
+		this.maxBatchBytes = maxBytes;
+		this.maxBatchNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+	}
+
+	/*
+	 * run starts all the stages and waits for the load to finish. If any of
+	 * the workers fails, the other workers are cancelled and the error is
+	 * rethrown. Returns the number of rows that were loaded.
+	 */
+	public long run() throws Exception {
+		ExecutorCompletionService<Long> completionService = new ExecutorCompletionService<>(executor);
+		List<Future<Long>> workers = new ArrayList<>();
+
+		for (int segment = 0; segment < totalSegments; segment++) {
+			final int currentSegment = segment;
+
+			workers.add(completionService.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					return scan(currentSegment);
+				}
+			}));
+		}
+
+		for (int i = 0; i < converterCount; i++) {
+			workers.add(completionService.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					return convert();
+				}
+			}));
+		}
+
+		for (int i = 0; i < writerCount; i++) {
+			workers.add(completionService.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					return copy();
+				}
+			}));
+		}
+
+		long numRowsLoaded = 0;
+		int numFinished = 0;
+
+		try {
+			while (numFinished < workers.size()) {
+				Future<Long> finished = completionService.poll(REPORT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+				if (finished == null) {
+					LOG.info(String.format("Data load of table %s in progress: %s",
+							replicator.dynamoTableName, getStatistics()));
+					continue;
+				}
+
+				numRowsLoaded += finished.get();
+				numFinished++;
+			}
+		} catch (ExecutionException|InterruptedException e) {
+			cancelled = true;
+
+			for (Future<Long> worker : workers) {
+				worker.cancel(true);
+			}
+
+			if (e instanceof ExecutionException && e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+
+			throw e;
+		}
+
+		LOG.info(String.format("Data load of table %s finished: %s", replicator.dynamoTableName, getStatistics()));
+
+		return numRowsLoaded;
+	}
+
+	long scan(int segment) throws InterruptedException {
+		ScanCursor startCursor = startCursors.get(segment);
+		Map<String,AttributeValue> lastEvaluatedScanKey = startCursor.lastEvaluatedKey;
+		long sequenceNumber = 0;
+		boolean completed = false;
+
+		try {
+			while (!startCursor.done) {
+				long startTime = System.nanoTime();
+
+				ScanResult scanResult = replicator.scanWithRetries(lastEvaluatedScanKey, segment, totalSegments,
+						capacityController);
+				lastEvaluatedScanKey = scanResult.getLastEvaluatedKey();
+
+				ScanPage page = new ScanPage(segment, sequenceNumber++, scanResult.getItems(), lastEvaluatedScanKey);
+
+				long scanTime = System.nanoTime();
+				scanStage.addBusyTime(scanTime - startTime);
+				scanStage.addItems(page.size());
+
+				pageQueue.put(page);
+
+				long queueTime = System.nanoTime();
+				scanStage.addOutputWaitTime(queueTime - scanTime);
+
+				if (page.isLastPage()) {
+					break;
+				}
+
+				// Account for the throughput we consumed, now that we know how
+				// much that scan request cost, and wait until it "recharges"
+				capacityController.consume(scanResult.getConsumedCapacity().getCapacityUnits());
+
+				/* for scanners, the input is read capacity */
+				scanStage.addInputWaitTime(System.nanoTime() - queueTime);
+			}
+
+			completed = true;
+		} finally {
+			if (activeScanners.decrementAndGet() == 0) {
+				endInput(pageQueue, END_OF_PAGES, converterCount, completed);
+			}
+		}
+
+		return 0L;
+	}
+
+	long convert() throws InterruptedException {
+		boolean completed = false;
+
+		try {
+			while (true) {
+				long waitStartTime = System.nanoTime();
+				ScanPage page = pageQueue.take();
+				long startTime = System.nanoTime();
+
+				convertStage.addInputWaitTime(startTime - waitStartTime);
+
+				if (page == END_OF_PAGES) {
+					break;
+				}
+
+				TableRowBatch tableRowBatch = replicator.batchFromScanPage(page);
+				List<ScanCursor> cursors = new ArrayList<>();
+				cursors.add(page.getCursor(totalSegments));
+
+				long convertTime = System.nanoTime();
+				convertStage.addBusyTime(convertTime - startTime);
+				convertStage.addItems(tableRowBatch.size());
+
+				if (tableRowBatch.size() > 0) {
+					batchQueue.put(new LoadBatch(tableRowBatch, cursors));
+				} else {
+					/* nothing to load, but the segment can advance */
+					progress.loaded(cursors);
+				}
+
+				convertStage.addOutputWaitTime(System.nanoTime() - convertTime);
+			}
+
+			completed = true;
+		} finally {
+			if (activeConverters.decrementAndGet() == 0) {
+				endInput(batchQueue, END_OF_BATCHES, writerCount, completed);
+			}
+		}
+
+		return 0L;
+	}
+
+	/*
+	 * endInput sends an end marker to each worker of the next stage. Only the
+	 * last worker of a stage that completed normally waits for room in the
+	 * queue. After a failure, the workers that drain the queue may already be
+	 * cancelled, so a blocking put could wait forever and the markers are
+	 * only added if there is room.
+	 */
+	<T> void endInput(BlockingQueue<T> queue, T endMarker, int numWorkers, boolean completed)
+			throws InterruptedException {
+		boolean blocking = completed && !cancelled && !Thread.currentThread().isInterrupted();
+
+		for (int i = 0; i < numWorkers; i++) {
+			if (blocking) {
+				queue.put(endMarker);
+			} else if (!queue.offer(endMarker)) {
+				break;
+			}
+		}
+	}
+
+	/*
+	 * copy coalesces the converted pages into larger batches and loads them
+	 * using COPY. A batch is loaded once it reaches the maximum number of rows
+	 * or bytes, or when its first rows have waited for the maximum time.
+	 */
+	long copy() throws InterruptedException {
+		long numRowsLoaded = 0;
+		LoadBatch pendingBatch = new LoadBatch();
+		long pendingSince = 0;
+
+		while (true) {
+			long waitStartTime = System.nanoTime();
+			LoadBatch tableRowBatch;
+
+			if (pendingBatch.size() == 0) {
+				tableRowBatch = batchQueue.take();
+			} else {
+				long remainingNanos = maxBatchNanos - (waitStartTime - pendingSince);
+				tableRowBatch = batchQueue.poll(Math.max(remainingNanos, 0), TimeUnit.NANOSECONDS);
+			}
+
+			long startTime = System.nanoTime();
+
+			copyStage.addInputWaitTime(startTime - waitStartTime);
+
+			if (tableRowBatch == END_OF_BATCHES) {
+				if (pendingBatch.size() > 0) {
+					numRowsLoaded += copyPendingBatch(pendingBatch);
+				}
+
+				break;
+			}
+
+			if (tableRowBatch != null) {
+				if (pendingBatch.size() == 0) {
+					pendingSince = startTime;
+				}
+
+				pendingBatch.add(tableRowBatch);
+			}
+
+			if (tableRowBatch == null ||
+					pendingBatch.size() >= maxBatchRows ||
+					pendingBatch.rows.getEstimatedSize() >= maxBatchBytes) {
+				numRowsLoaded += copyPendingBatch(pendingBatch);
+				pendingBatch = new LoadBatch();
+			}
+		}
+
+		return numRowsLoaded;
+	}
+
+	/*
+	 * copyPendingBatch loads a batch using COPY and saves the scan progress
+	 * once the batch is loaded.
+	 */
+	long copyPendingBatch(LoadBatch loadBatch) {
+		TableRowBatch tableRowBatch = loadBatch.rows;
+		long waitStartTime = System.nanoTime();
+
+		writeBudget.acquire(tableRowBatch.size());
+
+		long startTime = System.nanoTime();
+		copyStage.addOutputWaitTime(startTime - waitStartTime);
+
+		try {
+			replicator.copyBatch(tableRowBatch);
+		} catch (EmissionException e) {
+			if (!(resumed || replicator.isSequenced()) || !isUniqueViolation(e)) {
+				throw e;
+			}
+
+			LOG.info(String.format("Batch of %d rows overlaps rows that already exist in table %s, "
+					+ "upserting instead", tableRowBatch.size(), replicator.dynamoTableName));
+
+			replicator.upsertBatch(tableRowBatch);
+		}
+
+		progress.loaded(loadBatch.cursors);
+
+		copyStage.addBusyTime(System.nanoTime() - startTime);
+		copyStage.addItems(tableRowBatch.size());
+		batchRowsHistogram.record(tableRowBatch.size());
+		batchBytesHistogram.record(tableRowBatch.getEstimatedSize());
+
+		return tableRowBatch.size();
+	}
+
+	static boolean isUniqueViolation(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SQLException && UNIQUE_VIOLATION.equals(((SQLException) cause).getSQLState())) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	public int getPageQueueSize() {
+		return pageQueue.size();
+	}
+
+	public int getBatchQueueSize() {
+		return batchQueue.size();
+	}
+
+	public String getStatistics() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append(scanStage);
+		sb.append(", ");
+		sb.append(capacityController);
+		sb.append("; page queue ");
+		sb.append(getPageQueueSize());
+		sb.append("; ");
+		sb.append(convertStage);
+		sb.append("; batch queue ");
+		sb.append(getBatchQueueSize());
+		sb.append("; ");
+		sb.append(copyStage);
+		sb.append(", ");
+		sb.append(writeBudget);
+		sb.append("; ");
+		sb.append(batchRowsHistogram);
+		sb.append("; ");
+		sb.append(batchBytesHistogram);
+
+		return sb.toString();
+	}
+
+}
@@ -53,10 +53,34 @@ public class DynamoDBReplicator {
 			boolean useCitus = false;//cmd.hasOption("citus");
 			boolean useLowerCaseColumnNames = false;//cmd.hasOption("lower-case-column-names");
 			int maxScanRate = 25;//Integer.parseInt(cmd.getOptionValue("scan-rate", "25"));
+			int maxConcurrentTables = 4;//Integer.parseInt(cmd.getOptionValue("max-concurrent-tables", "4"));
+			double accountScanRate = 0;//Double.parseDouble(cmd.getOptionValue("account-scan-rate", "0"));
+			double writeRate = 0;//Double.parseDouble(cmd.getOptionValue("write-rate", "0"));
+			double readCapacityFraction = 0;//Double.parseDouble(cmd.getOptionValue("read-capacity-fraction", "0"));
+			int schemaSampleSize = 0;//Integer.parseInt(cmd.getOptionValue("schema-sample-size", "0"));
+			double schemaSampleConfidence = 0.95;//Double.parseDouble(cmd.getOptionValue("schema-sample-confidence", "0.95"));
+			int scanSegments = 1;//Integer.parseInt(cmd.getOptionValue("scan-segments", "1"));
+			int conversionThreads = 1;//Integer.parseInt(cmd.getOptionValue("conversion-threads", "1"));
+			int copyThreads = 1;//Integer.parseInt(cmd.getOptionValue("copy-threads", "1"));
+			int scanPageSize = 100;//Integer.parseInt(cmd.getOptionValue("scan-page-size", "100"));
+			int copyBatchRows = 10000;//Integer.parseInt(cmd.getOptionValue("copy-batch-rows", "10000"));
+			long copyBatchBytes = 4194304;//Long.parseLong(cmd.getOptionValue("copy-batch-bytes", "4194304"));
+			long copyBatchMillis = 1000;//Long.parseLong(cmd.getOptionValue("copy-batch-ms", "1000"));
+			long changeBufferMillis = 0;//Long.parseLong(cmd.getOptionValue("change-buffer-ms", "0"));
+			int changeBufferKeys = 100000;//Integer.parseInt(cmd.getOptionValue("change-buffer-keys", "100000"));
+			boolean asyncCommit = false;//cmd.hasOption("async-commit");
+			long checkpointLagMillis = 1000;//Long.parseLong(cmd.getOptionValue("checkpoint-lag-ms", "1000"));
+			boolean sequencedApply = false;//cmd.hasOption("sequenced");
+			boolean citusShardRouting = false;//cmd.hasOption("citus-shard-routing");
+			boolean citusDirectLoad = false;//cmd.hasOption("citus-direct-load");
+			int workerConnectionCount = 4;//Integer.parseInt(cmd.getOptionValue("worker-connections", "4"));
 			int dbConnectionCount = 16;//Integer.parseInt(cmd.getOptionValue("num-connections", "16"));
 			String tableNamesString = tables;//cmd.getOptionValue("table");
 			String postgresURL = url;//cmd.getOptionValue("postgres-jdbc-url");
 			String conversionModeString = ConversionMode.columns.name();//cmd.getOptionValue("conversion-mode", ConversionMode.columns.name());
+			String copyFormatString = CopyFormat.text.name();//cmd.getOptionValue("copy-format", CopyFormat.text.name());
+			String loadModeString = LoadMode.copy.name();//cmd.getOptionValue("load-mode", LoadMode.copy.name());
+			String applyModeString = ApplyMode.statements.name();//cmd.getOptionValue("apply-mode", ApplyMode.statements.name());
 
 			ConversionMode conversionMode;
 			try {
@@ -65,6 +89,32 @@ public class DynamoDBReplicator {
 				throw new ParseException("invalid conversion mode: " + conversionModeString);
 			}
 
+			CopyFormat copyFormat;
+			try {
+				copyFormat = CopyFormat.valueOf(copyFormatString);
+			} catch (IllegalArgumentException e) {
+				throw new ParseException("invalid copy format: " + copyFormatString);
+			}
+
+			LoadMode loadMode;
+			try {
+				loadMode = LoadMode.valueOf(loadModeString);
+			} catch (IllegalArgumentException e) {
+				throw new ParseException("invalid load mode: " + loadModeString);
+			}
+
+			if (sequencedApply && loadMode == LoadMode.copy) {
+				/* loaded rows may overlap rows written by changes, which have a higher sequence number */
+				loadMode = LoadMode.upsert;
+			}
+
+			ApplyMode applyMode;
+			try {
+				applyMode = ApplyMode.valueOf(applyModeString);
+			} catch (IllegalArgumentException e) {
+				throw new ParseException("invalid apply mode: " + applyModeString);
+			}
+
 			AWSCredentialsProvider credentialsProvider = new AWSCredentialsProviderChain(new StaticCredentialsProvider(new BasicAWSCredentials(access, key)));
 
 			AmazonDynamoDB dynamoDBClient = AmazonDynamoDBClientBuilder.standard().
@@ -80,10 +130,35 @@ public class DynamoDBReplicator {
 				List<TableEmitter> emitters = new ArrayList<>();
 
 				for(int i = 0; i < dbConnectionCount; i++) {
-					emitters.add(new JDBCTableEmitter(postgresURL));
+					JDBCTableEmitter jdbcEmitter = new JDBCTableEmitter(postgresURL);
+					jdbcEmitter.setCopyFormat(copyFormat);
+					jdbcEmitter.setLoadMode(loadMode);
+					jdbcEmitter.setApplyMode(applyMode);
+
+					if (asyncCommit) {
+						jdbcEmitter.setSynchronousCommit(false);
+					}
+
+					emitters.add(jdbcEmitter);
 				}
 
-				emitter = new HashedMultiEmitter(emitters);
+				HashedMultiEmitter multiEmitter = new HashedMultiEmitter(emitters);
+				multiEmitter.setShardRouting(citusShardRouting);
+				multiEmitter.setUnorderedApply(sequencedApply);
+
+				if (citusDirectLoad) {
+					if (sequencedApply) {
+						throw new ParseException("direct loading into Citus workers cannot be combined with sequenced mode");
+					}
+
+					if (loadMode != LoadMode.copy) {
+						throw new ParseException("direct loading into Citus workers requires the copy load mode");
+					}
+
+					multiEmitter.setWorkerPool(new CitusWorkerPool(postgresURL, workerConnectionCount, copyFormat));
+				}
+
+				emitter = multiEmitter;
 			} else {
 				emitter = new StdoutSQLEmitter();
 			}
@@ -118,6 +193,15 @@ public class DynamoDBReplicator {
 				replicator.setUseCitus(useCitus);
 				replicator.setUseLowerCaseColumnNames(useLowerCaseColumnNames);
 				replicator.setConversionMode(conversionMode);
+				replicator.setScanSegments(scanSegments);
+				replicator.setPipelineConcurrency(conversionThreads, copyThreads);
+				replicator.setScanPageSize(scanPageSize);
+				replicator.setReadCapacityFraction(readCapacityFraction);
+				replicator.setSchemaSampling(schemaSampleSize, schemaSampleConfidence, maxScanRate);
+				replicator.setCopyBatchLimits(copyBatchRows, copyBatchBytes, copyBatchMillis);
+				replicator.setChangeBuffer(changeBufferMillis, changeBufferKeys);
+				replicator.setCheckpointLag(asyncCommit ? checkpointLagMillis : 0);
+				replicator.setSequenced(sequencedApply);
 
 				replicators.add(replicator);
 			}
@@ -129,25 +213,45 @@ public class DynamoDBReplicator {
 				}
 			}
 
-			if (replicateData) {
-				List<Future<Long>> futureResults = new ArrayList<Future<Long>>();
+			/*
+			 * In sequenced mode, loaded rows and changes can be applied in any
+			 * order, so changes are replicated while the data is loaded.
+			 */
+			boolean concurrentChanges = replicateChanges && replicateData && sequencedApply;
 
+			if (replicateData) {
 				for(DynamoDBTableReplicator replicator : replicators) {
 					replicator.replicateSchema();
-					LOG.info(String.format("Replicating data for table %s", replicator.dynamoTableName));
-					Future<Long> futureResult = replicator.startReplicatingData(maxScanRate);
-					futureResults.add(futureResult);
 				}
 
+				if (concurrentChanges) {
+					for(DynamoDBTableReplicator replicator : replicators) {
+						LOG.info(String.format("Replicating changes for table %s during the data load",
+								replicator.dynamoTableName));
+						replicator.startReplicatingChanges();
+					}
+				}
+
+				CapacityBudget readBudget = new CapacityBudget("account read budget", accountScanRate);
+				CapacityBudget writeBudget = new CapacityBudget("write budget", writeRate);
+				TableLoadScheduler scheduler = new TableLoadScheduler(maxConcurrentTables, maxScanRate,
+						readBudget, writeBudget);
+
+				List<Future<Long>> futureResults = scheduler.schedule(replicators);
+
 				for(Future<Long> futureResult : futureResults) {
 					futureResult.get();
 				}
+
+				scheduler.shutdown();
 			}
 
 			if (replicateChanges) {
-				for(DynamoDBTableReplicator replicator : replicators) {
-					LOG.info(String.format("Replicating changes for table %s", replicator.dynamoTableName));
-					replicator.startReplicatingChanges();
+				if (!concurrentChanges) {
+					for(DynamoDBTableReplicator replicator : replicators) {
+						LOG.info(String.format("Replicating changes for table %s", replicator.dynamoTableName));
+						replicator.startReplicatingChanges();
+					}
 				}
 			} else {
 				executor.shutdown();
@@ -3,20 +3,25 @@
  */
 package com.citusdata.migration;
 
+import java.math.BigDecimal;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -64,16 +69,19 @@ import com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput;
 import com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
 import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownInput;
 import com.amazonaws.util.json.Jackson;
+import com.citusdata.migration.datamodel.Delete;
+import com.citusdata.migration.datamodel.ModificationCoalescer;
 import com.citusdata.migration.datamodel.PrimaryKeyValue;
 import com.citusdata.migration.datamodel.TableColumn;
 import com.citusdata.migration.datamodel.TableColumnType;
 import com.citusdata.migration.datamodel.TableColumnValue;
 import com.citusdata.migration.datamodel.TableEmitter;
 import com.citusdata.migration.datamodel.TableExistsException;
+import com.citusdata.migration.datamodel.TableModification;
 import com.citusdata.migration.datamodel.TableRow;
 import com.citusdata.migration.datamodel.TableRowBatch;
 import com.citusdata.migration.datamodel.TableSchema;
-import com.google.common.util.concurrent.RateLimiter;
+import com.citusdata.migration.datamodel.Upsert;
 
 /**
  * @author marco
@@ -86,6 +94,11 @@ public class DynamoDBTableReplicator {
 	public static final String APPLICATION_NAME = "podyn";
 	public static final String LEASE_TABLE_PREFIX = "podyn_migration_";
 
+	static final int MAX_SCAN_ATTEMPTS = 10;
+
+	/* number of item signatures to remember, forgetting the least recently seen */
+	static final int MAX_KNOWN_SIGNATURES = 10000;
+
 	final AmazonDynamoDBStreams streamsClient;
 	final AmazonDynamoDB dynamoDBClient;
 	final AWSCredentialsProvider awsCredentialsProvider;
@@ -98,9 +111,51 @@ public class DynamoDBTableReplicator {
 	boolean addColumnsEnabled;
 	boolean useCitus;
 	boolean useLowerCaseColumnNames;
+	boolean sequenced;
+	int scanSegments;
+	int conversionThreads;
+	int copyThreads;
+	int pipelineQueueSize;
+	int scanPageSize;
+	int copyBatchRows;
+	long copyBatchBytes;
+	long copyBatchMillis;
+	double readCapacityFraction;
+	long changeBufferMillis;
+	int changeBufferMaxKeys;
+	long checkpointLagMillis;
+	int schemaSampleSize;
+	double schemaSampleConfidence;
+	double schemaSampleScanRate;
+	CapacityBudget readBudget;
+	CapacityBudget writeBudget;
 	ConversionMode conversionMode;
 
-	TableSchema tableSchema;
+	/*
+	 * tableSchema holds the current version of the schema, or null if the
+	 * table does not exist. Scan segments and stream processors read it
+	 * without locking and build rows against the version they read. New
+	 * columns are added by publishing a new version while holding
+	 * schemaChangeLock, which only serializes schema changes.
+	 */
+	final AtomicReference<TableSchema> tableSchema;
+	final Object schemaChangeLock;
+
+	/*
+	 * knownSignatures holds the attribute names and types of items whose
+	 * attributes all have a column, such that items with the same attributes
+	 * do not need to be checked against the schema.
+	 */
+	final Map<Long,Boolean> knownSignatures;
+
+	/* number of changes applied and skipped because a later change overwrote them */
+	final AtomicLong replicatedChanges;
+	final AtomicLong coalescedChanges;
+
+	/* number of keys held in change buffers and the time taken to flush them */
+	final AtomicLong bufferedKeys;
+	final Histogram flushLatency;
+	final Histogram bufferedMillis;
 
 	public DynamoDBTableReplicator(
 			AmazonDynamoDB dynamoDBClient,
@@ -119,8 +174,40 @@ public class DynamoDBTableReplicator {
 		this.addColumnsEnabled = true;
 		this.useCitus = false;
 		this.useLowerCaseColumnNames = false;
+		this.sequenced = false;
+		this.scanSegments = 1;
+		this.conversionThreads = 1;
+		this.copyThreads = 1;
+		this.pipelineQueueSize = 4;
+		this.scanPageSize = 100;
+		this.copyBatchRows = 10000;
+		this.copyBatchBytes = 4 * 1024 * 1024;
+		this.copyBatchMillis = 1000;
+		this.readCapacityFraction = 0;
+		this.changeBufferMillis = 0;
+		this.changeBufferMaxKeys = 100000;
+		this.checkpointLagMillis = 0;
+		this.schemaSampleSize = 0;
+		this.schemaSampleConfidence = 0.95;
+		this.schemaSampleScanRate = 25;
+		this.readBudget = CapacityBudget.UNLIMITED;
+		this.writeBudget = CapacityBudget.UNLIMITED;
+		this.schemaChangeLock = new Object();
+		this.knownSignatures = newSignatureCache(MAX_KNOWN_SIGNATURES);
+		this.replicatedChanges = new AtomicLong();
+		this.coalescedChanges = new AtomicLong();
+		this.bufferedKeys = new AtomicLong();
+		this.flushLatency = new Histogram("change buffer flush latency (ms)");
+		this.bufferedMillis = new Histogram("change buffer age at flush (ms)");
 		this.schemaName = schemaName == null ? "public" : schemaName;
-		this.tableSchema = emitter.fetchSchema(this.dynamoTableName, this.schemaName);
+		this.tableSchema = new AtomicReference<>(emitter.fetchSchema(this.dynamoTableName, this.schemaName));
+	}
+
+	/*
+	 * getTableSchema returns the current version of the table schema.
+	 */
+	public TableSchema getTableSchema() {
+		return tableSchema.get();
 	}
 
 	public void setUseCitus(boolean useCitus) {
@@ -135,10 +222,184 @@ public class DynamoDBTableReplicator {
 		this.useLowerCaseColumnNames = useLowerCaseColumnNames;
 	}
 
+	/*
+	 * setSequenced makes the replicator store the stream sequence number of
+	 * the last change to each row and a tombstone for deleted items, such that
+	 * changes only overwrite rows written by older changes and can be applied
+	 * in any order. Rows from the data load get sequence number 0, such that
+	 * they never overwrite a replicated change.
+	 */
+	public void setSequenced(boolean sequenced) {
+		this.sequenced = sequenced;
+	}
+
+	public boolean isSequenced() {
+		return sequenced;
+	}
+
 	public void setConversionMode(ConversionMode conversionMode) {
 		this.conversionMode = conversionMode;
 	}
 
+	/*
+	 * setScanSegments sets the number of segments into which the initial data
+	 * load splits the table. Each segment is scanned by its own worker, all
+	 * workers share the scan rate of the table.
+	 */
+	public void setScanSegments(int scanSegments) {
+		if (scanSegments < 1) {
+			throw new IllegalArgumentException("number of scan segments must be at least 1");
+		}
+
+		this.scanSegments = scanSegments;
+	}
+
+	/*
+	 * setPipelineConcurrency sets the number of workers that convert scanned
+	 * items into rows and the number of workers that load rows using COPY
+	 * during the initial data load.
+	 */
+	public void setPipelineConcurrency(int conversionThreads, int copyThreads) {
+		if (conversionThreads < 1 || copyThreads < 1) {
+			throw new IllegalArgumentException("pipeline stages need at least 1 thread");
+		}
+
+		this.conversionThreads = conversionThreads;
+		this.copyThreads = copyThreads;
+	}
+
+	/*
+	 * setPipelineQueueSize sets the maximum number of scan pages and row
+	 * batches that can wait between the stages of the data load pipeline.
+	 */
+	public void setPipelineQueueSize(int pipelineQueueSize) {
+		if (pipelineQueueSize < 1) {
+			throw new IllegalArgumentException("pipeline queue size must be at least 1");
+		}
+
+		this.pipelineQueueSize = pipelineQueueSize;
+	}
+
+	/*
+	 * setScanPageSize sets the maximum number of items read by a single scan
+	 * request.
+	 */
+	public void setScanPageSize(int scanPageSize) {
+		if (scanPageSize < 1) {
+			throw new IllegalArgumentException("scan page size must be at least 1");
+		}
+
+		this.scanPageSize = scanPageSize;
+	}
+
+	/*
+	 * setReadCapacityFraction makes the data load target the given fraction of
+	 * the provisioned read capacity of the table, adapting the scan rate to
+	 * the consumed capacity and to throttling. The scan rate never exceeds the
+	 * maximum scan rate. When the fraction is 0, the target is the maximum
+	 * scan rate.
+	 */
+	public void setReadCapacityFraction(double readCapacityFraction) {
+		if (readCapacityFraction < 0 || readCapacityFraction > 1) {
+			throw new IllegalArgumentException("read capacity fraction must be between 0 and 1");
+		}
+
+		this.readCapacityFraction = readCapacityFraction;
+	}
+
+	/*
+	 * setSchemaSampling makes fetchSourceSchema sample up to sampleSize items
+	 * at no more than maxScanRate reads/sec and create columns for their
+	 * attributes, such that the data load rarely needs to add columns. The
+	 * confidence determines which attributes the sample is reported to find.
+	 * A sample size of 0 disables sampling.
+	 */
+	public void setSchemaSampling(int sampleSize, double confidence, double maxScanRate) {
+		if (confidence <= 0 || confidence >= 1) {
+			throw new IllegalArgumentException("schema sample confidence must be between 0 and 1");
+		}
+
+		this.schemaSampleSize = sampleSize;
+		this.schemaSampleConfidence = confidence;
+		this.schemaSampleScanRate = maxScanRate;
+	}
+
+	/*
+	 * setCopyBatchLimits sets the maximum number of rows and bytes that the
+	 * data load accumulates across scan pages before loading them using a
+	 * single COPY, and the maximum time rows wait for a batch to fill up.
+	 */
+	public void setCopyBatchLimits(int copyBatchRows, long copyBatchBytes, long copyBatchMillis) {
+		if (copyBatchRows < 1) {
+			throw new IllegalArgumentException("COPY batch size must be at least 1 row");
+		}
+
+		this.copyBatchRows = copyBatchRows;
+		this.copyBatchBytes = copyBatchBytes;
+		this.copyBatchMillis = copyBatchMillis;
+	}
+
+	/*
+	 * setCapacityBudgets sets the read capacity budget that the data load
+	 * shares with the loads of other tables in the account, and the budget
+	 * for the number of rows written to the database per second.
+	 */
+	public void setCapacityBudgets(CapacityBudget readBudget, CapacityBudget writeBudget) {
+		this.readBudget = readBudget;
+		this.writeBudget = writeBudget;
+	}
+
+	/*
+	 * setChangeBuffer makes change replication hold the latest change to each
+	 * key for up to the given number of milliseconds, such that keys that are
+	 * modified many times within the window are written once. The buffer of a
+	 * shard is flushed early when it holds the maximum number of keys. When
+	 * the window is 0, changes are applied as soon as they are read.
+	 */
+	public void setChangeBuffer(long changeBufferMillis, int changeBufferMaxKeys) {
+		if (changeBufferMillis < 0) {
+			throw new IllegalArgumentException("change buffer window cannot be negative");
+		}
+
+		if (changeBufferMaxKeys < 1) {
+			throw new IllegalArgumentException("change buffer needs to hold at least 1 key");
+		}
+
+		this.changeBufferMillis = changeBufferMillis;
+		this.changeBufferMaxKeys = changeBufferMaxKeys;
+	}
+
+	/*
+	 * setCheckpointLag makes change replication checkpoint a stream record only
+	 * after its changes were applied at least the given number of milliseconds
+	 * ago. This is needed when the database commits with synchronous_commit
+	 * off, in which case committed changes only become durable once the WAL
+	 * writer flushes them.
+	 */
+	public void setCheckpointLag(long checkpointLagMillis) {
+		if (checkpointLagMillis < 0) {
+			throw new IllegalArgumentException("checkpoint lag cannot be negative");
+		}
+
+		this.checkpointLagMillis = checkpointLagMillis;
+	}
+
+	public long getBufferedKeyCount() {
+		return bufferedKeys.get();
+	}
+
+	public Histogram getFlushLatency() {
+		return flushLatency;
+	}
+
+	public long getReplicatedChangeCount() {
+		return replicatedChanges.get();
+	}
+
+	public long getCoalescedChangeCount() {
+		return coalescedChanges.get();
+	}
+
 	String dynamoKeyToColumnName(String keyName) {
 		if (useLowerCaseColumnNames) {
 			return keyName.toLowerCase();
@@ -148,17 +409,69 @@ public class DynamoDBTableReplicator {
 	}
 
 	public void replicateSchema() throws TableExistsException {
-		if (tableSchema == null) {
-			tableSchema = fetchSourceSchema();
-			emitter.createTable(tableSchema);
+		if (tableSchema.get() == null) {
+			TableSchema sourceSchema = fetchSourceSchema();
+			emitter.createTable(sourceSchema);
+			tableSchema.set(sourceSchema);
 		}
+
+		addSequenceColumns();
+	}
+
+	/*
+	 * addSequenceColumns adds the sequence number and tombstone columns to a
+	 * table that was created without them. A table that already has them is
+	 * always replicated in sequenced mode, since upserts without a sequence
+	 * number do not overwrite rows that have one.
+	 */
+	void addSequenceColumns() {
+		if (tableSchema.get().isSequenced()) {
+			if (!sequenced) {
+				LOG.info(String.format("Table %s has a %s column, replicating it in sequenced mode",
+						dynamoTableName, TableSchema.SEQUENCE_COLUMN_NAME));
+				sequenced = true;
+			}
+
+			return;
+		}
+
+		if (!sequenced) {
+			return;
+		}
+
+		Map<String,TableColumnType> sequenceColumns = new LinkedHashMap<>();
+		sequenceColumns.put(TableSchema.SEQUENCE_COLUMN_NAME, TableColumnType.numeric);
+		sequenceColumns.put(TableSchema.TOMBSTONE_COLUMN_NAME, TableColumnType.bool);
+
+		synchronized (schemaChangeLock) {
+			addColumns(tableSchema.get(), sequenceColumns);
+		}
+	}
+
+	/*
+	 * addColumns adds the given columns to the table and publishes the version
+	 * of the schema that has them. Rows that are built against the new version
+	 * can only be written once the columns exist, so the columns are created
+	 * first. The caller needs to hold schemaChangeLock.
+	 */
+	void addColumns(TableSchema currentSchema, Map<String,TableColumnType> newColumns) {
+		TableSchema nextSchema = currentSchema.withColumns(newColumns);
+		List<TableColumn> columns = new ArrayList<>(newColumns.size());
+
+		for (String columnName : newColumns.keySet()) {
+			columns.add(nextSchema.getColumn(columnName));
+		}
+
+		LOG.info(String.format("Adding new columns to table %s: %s", dynamoTableName, columns));
+		emitter.createColumns(columns);
+
+		tableSchema.set(nextSchema);
 	}
 
 	TableSchema fetchSourceSchema() {
 		TableSchema tableSchema = new TableSchema(dynamoTableName, schemaName);
 
-		DescribeTableResult describeTableResult = dynamoDBClient.describeTable(dynamoTableName);
-		TableDescription tableDescription = describeTableResult.getTable();
+		TableDescription tableDescription = describeSourceTable();
 
 		List<AttributeDefinition> attributeDefinitions = tableDescription.getAttributeDefinitions();
 
@@ -200,6 +513,10 @@ public class DynamoDBTableReplicator {
 
 		tableSchema.setPrimaryKey(primaryKey);
 
+		if (conversionMode == ConversionMode.columns && schemaSampleSize > 0) {
+			addSampledColumns(tableSchema);
+		}
+
 		List<GlobalSecondaryIndexDescription> secondaryIndexes = tableDescription.getGlobalSecondaryIndexes();
 
 		if (secondaryIndexes != null) {
@@ -222,9 +539,46 @@ public class DynamoDBTableReplicator {
 			tableSchema.addColumn("data", TableColumnType.jsonb);
 		}
 
+		if (sequenced) {
+			tableSchema.addColumn(TableSchema.SEQUENCE_COLUMN_NAME, TableColumnType.numeric);
+			tableSchema.addColumn(TableSchema.TOMBSTONE_COLUMN_NAME, TableColumnType.bool);
+		}
+
 		return tableSchema;
 	}
 
+	/*
+	 * addSampledColumns adds columns for the attributes found in a sample of
+	 * the items to a schema that is being built. The most frequent type of an
+	 * attribute gets the column named after the attribute, other types get a
+	 * column named after the attribute and the type, as in addNewColumns.
+	 */
+	void addSampledColumns(TableSchema tableSchema) {
+		ReadCapacityController capacityController = new ReadCapacityController(dynamoDBClient, dynamoTableName,
+				schemaSampleScanRate, readCapacityFraction, readBudget);
+		SchemaSampler sampler = new SchemaSampler(this, executor, schemaSampleSize, schemaSampleConfidence);
+		sampler.sample(capacityController);
+
+		for (Map.Entry<String,List<TableColumnType>> entry : sampler.getAttributeTypes().entrySet()) {
+			String columnName = dynamoKeyToColumnName(entry.getKey());
+
+			for (TableColumnType type : entry.getValue()) {
+				TableColumn column = tableSchema.getColumn(columnName);
+
+				if (column == null) {
+					tableSchema.addColumn(columnName, type);
+				} else if (column.type != type && !tableSchema.columnExists(columnName + "_" + type)) {
+					tableSchema.addColumn(columnName + "_" + type, type);
+				}
+			}
+		}
+	}
+
+	TableDescription describeSourceTable() {
+		DescribeTableResult describeTableResult = dynamoDBClient.describeTable(dynamoTableName);
+		return describeTableResult.getTable();
+	}
+
 	public Future<Long> startReplicatingData(final int maxScanRate) {
 		return executor.submit(new Callable<Long>() {
 			@Override
@@ -234,75 +588,131 @@ public class DynamoDBTableReplicator {
 		});
 	}
 
-	private Map<String, Condition> getMaxPkFilterConditions(TableSchema tableSchema) {
-		Map<String, Condition> res = null;
-		Map<String,Object> maxPk = emitter.getMaxPrimaryKey(tableSchema);
-		if( maxPk != null ) {
-			res = new HashMap<String, Condition>();
-			for (String key : maxPk.keySet()) {
-				if ( maxPk.get(key) != null ) {
-					String val = maxPk.get(key).toString();
-					boolean isNumber = val.matches("^[0-9-]*$");
-					AttributeValue attrVal = isNumber ? new AttributeValue().withN( val ) : new AttributeValue( val );
-					Condition gt = new Condition();
-					gt.setComparisonOperator("GT");
-					res.put( key, gt.withAttributeValueList( attrVal ) );
-				} 
-			}
-		}
-
-		return res;
-	}
-
-	public long replicateData(int maxScanRate) {
-		RateLimiter rateLimiter = RateLimiter.create(maxScanRate);
-		Map<String,AttributeValue> lastEvaluatedScanKey = null;
-		long numRowsReplicated = 0;
-		Map<String, Condition> filters = getMaxPkFilterConditions( tableSchema );
-		while( true ) {
-			ScanResult scanResult = scanWithRetries(lastEvaluatedScanKey, filters );
-			
-			if (addColumnsEnabled) {
-				for(Map<String,AttributeValue> dynamoItem : scanResult.getItems()) {
-					addNewColumns(dynamoItem);
-				}
+	/*
+	 * replicateData loads all the data in the table using a DataLoadPipeline
+	 * and returns the number of rows that were loaded. If a previous load of
+	 * the table was interrupted, the load resumes from the saved cursors with
+	 * the number of segments of the previous load.
+	 */
+	public long replicateData(int maxScanRate) throws Exception {
+		List<ScanCursor> startCursors = loadScanCursors();
+
+		/*
+		 * Rows may have been loaded by a run that stopped before saving any
+		 * cursor beyond the start of its segments, or by a run that did not
+		 * save cursors at all, in which case existing rows are upserted.
+		 */
+		boolean resumed = !startCursors.isEmpty() || emitter.hasRows(tableSchema.get());
+
+		if (startCursors.isEmpty()) {
+			if (resumed) {
+				LOG.info(String.format("Table %s already has rows, batches that overlap existing rows are upserted",
+						dynamoTableName));
 			}
 
-			TableRowBatch tableRowBatch = new TableRowBatch();
+			for (int segment = 0; segment < scanSegments; segment++) {
+				ScanCursor cursor = ScanCursor.start(segment, scanSegments);
 
-			for(Map<String,AttributeValue> dynamoItem : scanResult.getItems()) {
-				TableRow tableRow = rowFromDynamoRecord(dynamoItem);
+				saveScanCursor(cursor);
+				startCursors.add(cursor);
+			}
+		} else {
+			int segmentsDone = 0;
 
-				tableRowBatch.addRow(tableRow);
+			for (ScanCursor cursor : startCursors) {
+				if (cursor.done) {
+					segmentsDone++;
+				}
 			}
-			if(tableRowBatch.size() > 0) {
-				LOG.info(String.format("Replicated %d rows to table %s", tableRowBatch.size(), tableSchema.tableName));
+
+			if (segmentsDone == startCursors.size()) {
+				LOG.info(String.format("Data load of table %s was already completed", dynamoTableName));
+				return 0;
 			}
-			
-			numRowsReplicated += tableRowBatch.size();
 
-			/* load the batch using COPY */
-			emitter.copyFromReader(tableSchema, tableRowBatch.asCopyReader());
+			LOG.info(String.format("Resuming data load of table %s, %d of %d segments done",
+					dynamoTableName, segmentsDone, startCursors.size()));
+		}
+
+		ReadCapacityController capacityController = new ReadCapacityController(dynamoDBClient, dynamoTableName,
+				maxScanRate, readCapacityFraction, readBudget);
 
-			lastEvaluatedScanKey = scanResult.getLastEvaluatedKey();
-			
-			if(lastEvaluatedScanKey == null) {
-				break;
-			}
+		DataLoadPipeline pipeline = new DataLoadPipeline(this, executor, capacityController, startCursors, resumed,
+				conversionThreads, copyThreads, pipelineQueueSize);
+		pipeline.setCopyBatchLimits(copyBatchRows, copyBatchBytes, copyBatchMillis);
+		pipeline.setWriteBudget(writeBudget);
+
+		long numRowsReplicated = pipeline.run();
+
+		LOG.info(String.format("Replicated %d rows to table %s", numRowsReplicated, dynamoTableName));
+
+		return numRowsReplicated;
+	}
 
-			// Account for the rest of the throughput we consumed, 
-			// now that we know how much that scan request cost 
-			double consumedCapacity = scanResult.getConsumedCapacity().getCapacityUnits();
-			int permitsToConsume = (int)(consumedCapacity - 1.0);
-			if (permitsToConsume <= 0) {
-				permitsToConsume = 1;
+	/*
+	 * batchFromScanPage adds any new columns found in the items of a scan
+	 * page to the table and converts the items into rows.
+	 */
+	TableRowBatch batchFromScanPage(ScanPage page) {
+		if (addColumnsEnabled) {
+			addNewColumns(page.items);
+		}
+
+		TableRowBatch tableRowBatch = new TableRowBatch();
+		TableSchema currentSchema = tableSchema.get();
+
+		for(Map<String,AttributeValue> dynamoItem : page.items) {
+			TableRow tableRow = rowFromDynamoRecord(currentSchema, dynamoItem);
+
+			if (sequenced) {
+				setSequenceNumber(tableRow, BigDecimal.ZERO, false);
 			}
 
-			// Let the rate limiter wait until our desired throughput "recharges"
-			rateLimiter.acquire(permitsToConsume);
+			tableRowBatch.addRow(tableRow);
 		}
 
-		return numRowsReplicated;
+		return tableRowBatch;
+	}
+
+	/*
+	 * copyBatch loads a batch of rows using COPY with the columns of the
+	 * current version of the schema, which is at least as new as the version
+	 * of any row in the batch.
+	 */
+	void copyBatch(TableRowBatch tableRowBatch) {
+		emitter.copyFromBatch(tableSchema.get(), tableRowBatch);
+
+		LOG.debug(String.format("Replicated %d rows to table %s", tableRowBatch.size(), dynamoTableName));
+	}
+
+	/*
+	 * upsertBatch loads a batch of rows through a staging table, overwriting
+	 * rows that already exist.
+	 */
+	void upsertBatch(TableRowBatch tableRowBatch) {
+		emitter.upsertFromBatch(tableSchema.get(), tableRowBatch);
+	}
+
+	/*
+	 * loadScanCursors returns the saved cursors of a previous data load of the
+	 * table, or an empty list if the table was not loaded before.
+	 */
+	List<ScanCursor> loadScanCursors() {
+		List<ScanCursor> cursors = emitter.loadScanProgress(tableSchema.get());
+
+		for (int segment = 0; segment < cursors.size(); segment++) {
+			ScanCursor cursor = cursors.get(segment);
+
+			if (cursor.segment != segment || cursor.totalSegments != cursors.size()) {
+				throw new EmissionException("inconsistent scan progress for table %s: %s", dynamoTableName, cursor);
+			}
+		}
+
+		return cursors;
+	}
+
+	void saveScanCursor(ScanCursor cursor) {
+		emitter.saveScanProgress(tableSchema.get(), cursor);
 	}
 
 	private List<Map<String,AttributeValue>> queryTable(Map<String, Condition> startKeys) {
@@ -319,35 +729,43 @@ public class DynamoDBTableReplicator {
 		return items;
 	}
 
-	private ScanResult scanWithRetries(Map<String, AttributeValue> lastEvaluatedScanKey, Map<String, Condition> filters) {
+	ScanResult scanWithRetries(Map<String, AttributeValue> lastEvaluatedScanKey, int segment, int totalSegments,
+			ReadCapacityController capacityController) {
 		ScanRequest scanRequest = new ScanRequest().
 				withTableName(this.dynamoTableName).
 				withConsistentRead(true).
 				withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL).
-				withLimit(100).
+				withLimit(scanPageSize).
 				withExclusiveStartKey(lastEvaluatedScanKey);
-		if( filters != null ) {
-			for (String key : filters.keySet()) {
-				scanRequest.addScanFilterEntry(key, filters.get(key));
-			}
+
+		if (totalSegments > 1) {
+			scanRequest.
+				withSegment(segment).
+				withTotalSegments(totalSegments);
 		}
-		
+
 		for (int tryNumber = 1; ; tryNumber++) {
+			long backoffMillis;
+
 			try {
 				ScanResult scanResult = dynamoDBClient.scan(scanRequest);
 				return scanResult;
 			} catch (ProvisionedThroughputExceededException e) {
-				if (tryNumber == 3) {
+				if (tryNumber == MAX_SCAN_ATTEMPTS) {
 					throw e;
 				}
+
+				backoffMillis = capacityController.throttled(tryNumber);
 			} catch (InternalServerErrorException e) {
-				if (tryNumber == 3) {
+				if (tryNumber == MAX_SCAN_ATTEMPTS) {
 					throw e;
 				}
+
+				backoffMillis = ReadCapacityController.backoff(tryNumber);
 			}
 
 			try {
-				Thread.sleep(1000);
+				Thread.sleep(backoffMillis);
 			} catch (InterruptedException e) {
 				Thread.currentThread().interrupt();
 			}
@@ -355,18 +773,19 @@ public class DynamoDBTableReplicator {
 	}
 
 	public String getStreamArn() {
-		DescribeTableResult describeTableResult = dynamoDBClient.describeTable(dynamoTableName);
-		TableDescription tableDescription = describeTableResult.getTable();
+		TableDescription tableDescription = describeSourceTable();
 		String tableStreamArn = tableDescription.getLatestStreamArn();
 		return tableStreamArn;
 	}
 
 
 	public void startReplicatingChanges() throws StreamNotEnabledException {
-		if (tableSchema == null) {
+		if (tableSchema.get() == null) {
 			throw new TableExistsException("table %s does not exist in destination", dynamoTableName);
 		}
 
+		addSequenceColumns();
+
 		String tableStreamArn = getStreamArn();
 
 		if (tableStreamArn == null) {
@@ -382,7 +801,7 @@ public class DynamoDBTableReplicator {
 				APPLICATION_NAME, tableStreamArn, awsCredentialsProvider, workerId).
 				withMaxRecords(1000).
 				withIdleTimeBetweenReadsInMillis(500).
-				withCallProcessRecordsEvenForEmptyRecordList(false).
+				withCallProcessRecordsEvenForEmptyRecordList(changeBufferMillis > 0 || checkpointLagMillis > 0).
 				withCleanupLeasesUponShardCompletion(false).
 				withFailoverTimeMillis(20000).
 				withTableName(LEASE_TABLE_PREFIX + dynamoTableName).
@@ -410,6 +829,16 @@ public class DynamoDBTableReplicator {
 	protected IRecordProcessor createStreamProcessor() {
 		return new IRecordProcessor() {
 
+			/* latest change per key that is not yet applied, if buffering is enabled */
+			final ChangeBuffer changeBuffer = changeBufferMillis > 0 ?
+					new ChangeBuffer(changeBufferMillis, changeBufferMaxKeys) : null;
+
+			/* last record whose change was added to the change buffer */
+			com.amazonaws.services.kinesis.model.Record lastBufferedRecord;
+
+			/* applied records that are not yet checkpointed, oldest first */
+			final ArrayDeque<PendingCheckpoint> pendingCheckpoints = new ArrayDeque<>();
+
 			@Override
 			public void initialize(InitializationInput initializationInput) {
 			}
@@ -429,16 +858,134 @@ public class DynamoDBTableReplicator {
 
 			@Override
 			public void processRecords(ProcessRecordsInput processRecordsInput) {
-				List<Record> records = extractDynamoStreamRecords(processRecordsInput.getRecords());
+				List<com.amazonaws.services.kinesis.model.Record> kinesisRecords = processRecordsInput.getRecords();
+				List<Record> records = extractDynamoStreamRecords(kinesisRecords);
+
+				IRecordProcessorCheckpointer checkpointer = processRecordsInput.getCheckpointer();
+
+				if (changeBuffer == null) {
+					if (!records.isEmpty()) {
+						DynamoDBTableReplicator.this.processRecords(records);
+
+						applied(checkpointer, kinesisRecords.get(kinesisRecords.size() - 1));
+					}
+				} else {
+					if (!records.isEmpty()) {
+						int previousSize = changeBuffer.size();
+
+						changeBuffer.add(modificationsFromRecords(records));
+						bufferedKeys.addAndGet(changeBuffer.size() - previousSize);
+
+						lastBufferedRecord = kinesisRecords.get(kinesisRecords.size() - 1);
+					}
+
+					if (changeBuffer.shouldFlush()) {
+						flush(checkpointer);
+					}
+				}
+
+				checkpointDurable(checkpointer);
+			}
+
+			/*
+			 * flush applies the buffered changes, after which the shard can be
+			 * checkpointed at the last buffered record, since all changes up to
+			 * that record are applied.
+			 */
+			void flush(IRecordProcessorCheckpointer checkpointer) {
+				long ageMillis = changeBuffer.getAgeMillis();
+				long numChanges = changeBuffer.getChangeCount();
+				List<TableModification> lastModifications = changeBuffer.drain();
+
+				bufferedKeys.addAndGet(-lastModifications.size());
+
+				long startTime = System.currentTimeMillis();
+
+				applyModifications(lastModifications, numChanges);
+
+				long flushMillis = System.currentTimeMillis() - startTime;
+				flushLatency.record(flushMillis);
+				bufferedMillis.record(ageMillis);
+
+				LOG.info(String.format("Flushed %d buffered keys of table %s after %d ms in %d ms, %d keys still buffered",
+						lastModifications.size(), dynamoTableName, ageMillis, flushMillis, bufferedKeys.get()));
+
+				applied(checkpointer, lastBufferedRecord);
+			}
+
+			/*
+			 * applied checkpoints the shard at the given record once its changes
+			 * are durable. Without a checkpoint lag, changes are durable when the
+			 * emitter returns. Otherwise, commits may return before the WAL is
+			 * flushed, so the checkpoint waits for the lag to pass.
+			 */
+			void applied(IRecordProcessorCheckpointer checkpointer, com.amazonaws.services.kinesis.model.Record record) {
+				if (checkpointLagMillis == 0) {
+					checkpoint(checkpointer, record);
+				} else {
+					pendingCheckpoints.add(new PendingCheckpoint(record, System.currentTimeMillis()));
+				}
+			}
+
+			/*
+			 * checkpointDurable checkpoints the shard at the last applied record
+			 * that was applied at least the checkpoint lag ago.
+			 */
+			void checkpointDurable(IRecordProcessorCheckpointer checkpointer) {
+				long durableTime = System.currentTimeMillis() - checkpointLagMillis;
+				PendingCheckpoint durableCheckpoint = null;
 
-				DynamoDBTableReplicator.this.processRecords(records);
+				while (!pendingCheckpoints.isEmpty() && pendingCheckpoints.peek().appliedTime <= durableTime) {
+					durableCheckpoint = pendingCheckpoints.poll();
+				}
+
+				if (durableCheckpoint != null) {
+					checkpoint(checkpointer, durableCheckpoint.record);
+				}
+			}
 
-				checkpoint(processRecordsInput.getCheckpointer());
+			/*
+			 * waitUntilDurable waits until all applied records can be checkpointed.
+			 */
+			void waitUntilDurable() {
+				if (pendingCheckpoints.isEmpty()) {
+					return;
+				}
+
+				long waitMillis = pendingCheckpoints.peekLast().appliedTime + checkpointLagMillis
+						- System.currentTimeMillis();
+
+				if (waitMillis > 0) {
+					try {
+						Thread.sleep(waitMillis);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
 			}
 
 			@Override
 			public void shutdown(ShutdownInput shutdownInput) {
-				if (shutdownInput.getShutdownReason() == ShutdownReason.TERMINATE) {
+				ShutdownReason reason = shutdownInput.getShutdownReason();
+
+				if (reason == ShutdownReason.ZOMBIE) {
+					/* another worker took the lease and continues from the last checkpoint */
+					if (changeBuffer != null) {
+						bufferedKeys.addAndGet(-changeBuffer.drain().size());
+					}
+
+					pendingCheckpoints.clear();
+					return;
+				}
+
+				if (changeBuffer != null && !changeBuffer.isEmpty()) {
+					flush(shutdownInput.getCheckpointer());
+				}
+
+				waitUntilDurable();
+				checkpointDurable(shutdownInput.getCheckpointer());
+
+				if (reason == ShutdownReason.TERMINATE) {
 					checkpoint(shutdownInput.getCheckpointer());
 				}
 			}
@@ -450,11 +997,46 @@ public class DynamoDBTableReplicator {
 					LOG.warn(e);
 				}
 			}
+
+			void checkpoint(IRecordProcessorCheckpointer checkpointer, com.amazonaws.services.kinesis.model.Record record) {
+				try {
+					checkpointer.checkpoint(record);
+				} catch (KinesisClientLibDependencyException|InvalidStateException|ThrottlingException|ShutdownException e) {
+					LOG.warn(e);
+				}
+			}
 		};
 	}
 
+	/*
+	 * PendingCheckpoint is a stream record whose changes were applied at the
+	 * given time, but may not be durable yet.
+	 */
+	static class PendingCheckpoint {
+		final com.amazonaws.services.kinesis.model.Record record;
+		final long appliedTime;
+
+		PendingCheckpoint(com.amazonaws.services.kinesis.model.Record record, long appliedTime) {
+			this.record = record;
+			this.appliedTime = appliedTime;
+		}
+	}
+
 	void processRecords(List<Record> records) {
+		List<TableModification> modifications = modificationsFromRecords(records);
+
+		/* skip changes that are overwritten by a later change to the same key */
+		applyModifications(ModificationCoalescer.coalesce(modifications), modifications.size());
+	}
+
+	/*
+	 * modificationsFromRecords converts stream records into modifications of
+	 * the table, adding new columns if needed.
+	 */
+	List<TableModification> modificationsFromRecords(List<Record> records) {
 		if (addColumnsEnabled) {
+			List<Map<String,AttributeValue>> items = new ArrayList<>(records.size());
+
 			for (Record dynamoRecord : records) {
 				StreamRecord streamRecord = dynamoRecord.getDynamodb();
 				Map<String,AttributeValue> item = streamRecord.getNewImage();
@@ -463,10 +1045,15 @@ public class DynamoDBTableReplicator {
 					continue;
 				}
 
-				addNewColumns(item);
+				items.add(item);
 			}
+
+			addNewColumns(items);
 		}
 
+		List<TableModification> modifications = new ArrayList<>(records.size());
+		TableSchema currentSchema = tableSchema.get();
+
 		for (Record dynamoRecord : records) {
 			StreamRecord streamRecord = dynamoRecord.getDynamodb();
 
@@ -480,54 +1067,221 @@ public class DynamoDBTableReplicator {
 					System.exit(1);
 				}
 
-				TableRow tableRow = rowFromDynamoRecord(dynamoItem);
-				emitter.upsert(tableRow);
-				LOG.debug(tableRow.toUpsert());
+				TableRow tableRow = rowFromDynamoRecord(currentSchema, dynamoItem);
+
+				if (sequenced) {
+					setSequenceNumber(tableRow, new BigDecimal(streamRecord.getSequenceNumber()), false);
+				}
+
+				modifications.add(new Upsert(tableRow));
+
+				if (LOG.isDebugEnabled()) {
+					LOG.debug(tableRow.toUpsert());
+				}
 				break;
 			case "REMOVE":
 				Map<String,AttributeValue> dynamoKeys = streamRecord.getKeys();
-				PrimaryKeyValue keyValue = primaryKeyValueFromDynamoKeys(dynamoKeys);
-				emitter.delete(keyValue);
-				LOG.debug(keyValue.toDelete());
+				PrimaryKeyValue keyValue = primaryKeyValueFromDynamoKeys(currentSchema, dynamoKeys);
+
+				if (sequenced) {
+					/* replace the row by a tombstone, such that older changes cannot revive it */
+					TableRow tombstone = keyValue.toRow();
+					setSequenceNumber(tombstone, new BigDecimal(streamRecord.getSequenceNumber()), true);
+					modifications.add(new Upsert(tombstone));
+
+					if (LOG.isDebugEnabled()) {
+						LOG.debug(tombstone.toUpsert());
+					}
+					break;
+				}
+
+				modifications.add(new Delete(keyValue));
+
+				if (LOG.isDebugEnabled()) {
+					LOG.debug(keyValue.toDelete());
+				}
 				break;
 			}
 
 			LOG.debug(streamRecord);
 		}
 
-		LOG.info(String.format("Replicated %d changes to table %s", records.size(), tableSchema.tableName));
+		return modifications;
+	}
+
+	/*
+	 * setSequenceNumber sets the sequence number and tombstone columns of a
+	 * row of a sequenced table. Since setValue ignores columns that are not in
+	 * the schema of the row, a row of a schema without them would otherwise be
+	 * written without a sequence number.
+	 */
+	static void setSequenceNumber(TableRow tableRow, BigDecimal sequenceNumber, boolean tombstone) {
+		TableSchema rowSchema = tableRow.tableSchema;
+
+		for (String columnName : new String[] {TableSchema.SEQUENCE_COLUMN_NAME, TableSchema.TOMBSTONE_COLUMN_NAME}) {
+			if (!rowSchema.columnExists(columnName)) {
+				throw new EmissionException("table %s has no column %s",
+						rowSchema.getQualifiedTableName(), columnName);
+			}
+		}
+
+		tableRow.setValue(TableSchema.SEQUENCE_COLUMN_NAME, new TableColumnValue(TableColumnType.numeric, sequenceNumber));
+		tableRow.setValue(TableSchema.TOMBSTONE_COLUMN_NAME, TableColumnValue.of(tombstone));
+	}
+
+	/*
+	 * applyModifications applies the last modification to each key, which
+	 * replace the given number of changes read from the stream.
+	 */
+	void applyModifications(List<TableModification> lastModifications, long numChanges) {
+		long numCoalesced = numChanges - lastModifications.size();
+
+		emitter.applyBatch(lastModifications);
+
+		replicatedChanges.addAndGet(lastModifications.size());
+		coalescedChanges.addAndGet(numCoalesced);
+
+		LOG.info(String.format("Replicated %d changes to table %s, skipped %d overwritten changes",
+				lastModifications.size(), dynamoTableName, numCoalesced));
 	}
 
-	void addNewColumns(Map<String,AttributeValue> item) {
+	/*
+	 * addNewColumns adds columns for the attributes of the items that the
+	 * table does not have yet, using a single ALTER TABLE for all of them.
+	 * Items whose attribute names and types were seen before are skipped
+	 * after a single lookup, and only items that change the schema take the
+	 * lock.
+	 */
+	void addNewColumns(List<Map<String,AttributeValue>> items) {
 		if(conversionMode == ConversionMode.jsonb) {
 			/* don't add new columns in jsonb mode */
 			return;
 		}
-		
-		for(Map.Entry<String,AttributeValue> entry : item.entrySet()) {
-			String keyName = entry.getKey();
-			String columnName = dynamoKeyToColumnName(keyName);
-			TableColumn column = tableSchema.getColumn(columnName);
-			TableColumnType valueType = DynamoDBTableReplicator.columnTypeFromDynamoValue(entry.getValue());
 
-			if (column == null) {
-				column = tableSchema.addColumn(columnName, valueType);
-				LOG.info(String.format("Adding new column to table %s: %s", tableSchema.tableName, column));
-				emitter.createColumn(column);
-			} else if (column.type != valueType) {
-				columnName = columnName + "_" + valueType;
-				column = tableSchema.getColumn(columnName);
+		List<Map<String,AttributeValue>> unknownItems = new ArrayList<>();
+		List<Long> unknownSignatures = new ArrayList<>();
 
-				if (column == null) {
-					column = tableSchema.addColumn(columnName, valueType);
-					LOG.info(String.format("Adding new column to table %s: %s", tableSchema.tableName, column));
-					emitter.createColumn(column);
+		for (Map<String,AttributeValue> item : items) {
+			long signature = itemSignature(item);
+
+			/* get rather than containsKey, which does not mark the signature as recently seen */
+			if (knownSignatures.get(signature) == null) {
+				unknownItems.add(item);
+				unknownSignatures.add(signature);
+			}
+		}
+
+		if (unknownItems.isEmpty()) {
+			return;
+		}
+
+		if (!findNewColumns(tableSchema.get(), unknownItems).isEmpty()) {
+			synchronized (schemaChangeLock) {
+				/* another thread may have added the columns in the meantime */
+				TableSchema currentSchema = tableSchema.get();
+				Map<String,TableColumnType> newColumns = findNewColumns(currentSchema, unknownItems);
+
+				if (!newColumns.isEmpty()) {
+					addColumns(currentSchema, newColumns);
+				}
+			}
+		}
+
+		for (Long signature : unknownSignatures) {
+			knownSignatures.put(signature, Boolean.TRUE);
+		}
+	}
+
+	/*
+	 * newSignatureCache returns a map of item signatures that forgets the
+	 * least recently seen signature once it holds the given number of them,
+	 * such that tables with many sparse attributes do not grow it forever
+	 * while the common signatures stay cached.
+	 */
+	static Map<Long,Boolean> newSignatureCache(final int maxSignatures) {
+		return Collections.synchronizedMap(new LinkedHashMap<Long,Boolean>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long,Boolean> eldest) {
+				return size() > maxSignatures;
+			}
+		});
+	}
+
+	/*
+	 * itemSignature returns a hash of the names and types of the attributes
+	 * of an item. The hashes of the attributes are added up, such that items
+	 * with the same attributes in a different order get the same signature.
+	 * Names are hashed with 64-bit FNV-1a rather than String.hashCode, whose
+	 * collisions between short names would make an item with a new attribute
+	 * look known.
+	 */
+	static long itemSignature(Map<String,AttributeValue> item) {
+		long signature = item.size();
+
+		for (Map.Entry<String,AttributeValue> entry : item.entrySet()) {
+			String name = entry.getKey();
+			long hash = 0xcbf29ce484222325L;
+
+			for (int i = 0; i < name.length(); i++) {
+				hash ^= name.charAt(i);
+				hash *= 0x100000001b3L;
+			}
+
+			hash ^= columnTypeFromDynamoValue(entry.getValue()).ordinal() + 1;
+			hash *= 0x100000001b3L;
+
+			/* mix the bits, since a plain sum of FNV hashes cancels out easily */
+			hash ^= hash >>> 33;
+			hash *= 0xff51afd7ed558ccdL;
+			hash ^= hash >>> 33;
+
+			signature += hash;
+		}
+
+		return signature;
+	}
+
+	/*
+	 * findNewColumns returns the columns that are needed for the attributes of
+	 * the items, but do not exist in the given version of the schema. An
+	 * attribute whose type differs from its column goes into a column named
+	 * after the attribute and its type.
+	 */
+	Map<String,TableColumnType> findNewColumns(TableSchema currentSchema, List<Map<String,AttributeValue>> items) {
+		Map<String,TableColumnType> newColumns = new LinkedHashMap<>();
+
+		for (Map<String,AttributeValue> item : items) {
+			for(Map.Entry<String,AttributeValue> entry : item.entrySet()) {
+				String keyName = entry.getKey();
+				String columnName = dynamoKeyToColumnName(keyName);
+				TableColumnType valueType = DynamoDBTableReplicator.columnTypeFromDynamoValue(entry.getValue());
+				TableColumnType columnType = columnType(currentSchema, newColumns, columnName);
+
+				if (columnType == null) {
+					newColumns.put(columnName, valueType);
+				} else if (columnType != valueType) {
+					columnName = columnName + "_" + valueType;
+
+					if (columnType(currentSchema, newColumns, columnName) == null) {
+						newColumns.put(columnName, valueType);
+					}
 				}
 			}
 		}
+
+		return newColumns;
+	}
+
+	static TableColumnType columnType(TableSchema currentSchema, Map<String,TableColumnType> newColumns,
+			String columnName) {
+		TableColumn column = currentSchema.getColumn(columnName);
+
+		return column != null ? column.type : newColumns.get(columnName);
 	}
 
-	PrimaryKeyValue primaryKeyValueFromDynamoKeys(Map<String,AttributeValue> dynamoKeys) {
+	PrimaryKeyValue primaryKeyValueFromDynamoKeys(TableSchema tableSchema, Map<String,AttributeValue> dynamoKeys) {
 		PrimaryKeyValue keyValue = new PrimaryKeyValue(tableSchema);
 
 		for(Map.Entry<String,AttributeValue> entry : dynamoKeys.entrySet()) {
@@ -540,7 +1294,8 @@ public class DynamoDBTableReplicator {
 
 			TableColumnValue columnValue = DynamoDBTableReplicator.columnValueFromDynamoValue(entry.getValue());
 
-			keyValue.setValue(columnName, columnValue);
+			/* setValue wraps the datum in a value of the type of the key column */
+			keyValue.setValue(columnName, columnValue.datum);
 		}
 
 		return keyValue;
@@ -561,15 +1316,23 @@ public class DynamoDBTableReplicator {
 	}
 
 	public TableRow rowFromDynamoRecord(Map<String,AttributeValue> dynamoItem) {
+		return rowFromDynamoRecord(tableSchema.get(), dynamoItem);
+	}
+
+	/*
+	 * rowFromDynamoRecord converts an item into a row of the given version of
+	 * the table schema.
+	 */
+	public TableRow rowFromDynamoRecord(TableSchema tableSchema, Map<String,AttributeValue> dynamoItem) {
 		if (conversionMode == ConversionMode.jsonb) {
-			return rowWithJsonbFromDynamoRecord(dynamoItem);
+			return rowWithJsonbFromDynamoRecord(tableSchema, dynamoItem);
 		} else {
-			return rowWithColumnsFromDynamoRecord(dynamoItem);
+			return rowWithColumnsFromDynamoRecord(tableSchema, dynamoItem);
 
 		}
 	}
 
-	public TableRow rowWithJsonbFromDynamoRecord(Map<String,AttributeValue> dynamoItem) {
+	public TableRow rowWithJsonbFromDynamoRecord(TableSchema tableSchema, Map<String,AttributeValue> dynamoItem) {
 		TableRow row = tableSchema.createRow();
 		Item item = new Item();
 
@@ -592,7 +1355,7 @@ public class DynamoDBTableReplicator {
 		return row;
 	}
 
-	public TableRow rowWithColumnsFromDynamoRecord(Map<String,AttributeValue> dynamoItem) {
+	public TableRow rowWithColumnsFromDynamoRecord(TableSchema tableSchema, Map<String,AttributeValue> dynamoItem) {
 		TableRow row = tableSchema.createRow();
 
 		for(Map.Entry<String, AttributeValue> entry : dynamoItem.entrySet()) {
@@ -623,10 +1386,9 @@ public class DynamoDBTableReplicator {
 	public static TableColumnValue columnValueFromDynamoValue(AttributeValue typedValue) {
 		if(typedValue.getB() != null) {
 			ByteBuffer value = typedValue.getB();
-			return new TableColumnValue(TableColumnType.bytea, value.array());
+			return new TableColumnValue(TableColumnType.bytea, value);
 		} else if (typedValue.getBOOL() != null) {
-			Boolean value = typedValue.getBOOL();
-			return new TableColumnValue(TableColumnType.bool, value);
+			return TableColumnValue.of(typedValue.getBOOL());
 		} else if (typedValue.getBS() != null) {
 			List<ByteBuffer> value = typedValue.getBS();
 			return new TableColumnValue(TableColumnType.jsonb, Jackson.toJsonString(value));
@@ -1,20 +1,35 @@
 package com.citusdata.migration;
 
-import java.io.IOException;
 import java.io.Reader;
-import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Function;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.citusdata.migration.datamodel.AsyncTableEmitter;
 import com.citusdata.migration.datamodel.PrimaryKeyValue;
 import com.citusdata.migration.datamodel.TableColumn;
+import com.citusdata.migration.datamodel.TableColumnValue;
 import com.citusdata.migration.datamodel.TableEmitter;
+import com.citusdata.migration.datamodel.TableModification;
 import com.citusdata.migration.datamodel.TableRow;
+import com.citusdata.migration.datamodel.TableRowBatch;
 import com.citusdata.migration.datamodel.TableSchema;
-import com.google.common.collect.Tables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /*
  * HashedMultiEmitter can be used to perform concurrent writes across a pool of
@@ -23,144 +38,611 @@ import com.google.common.collect.Tables;
  * in the order in which they are emitted, but writes across different keys may
  * be emitted concurrently.
  * 
- * When making schema changes or bulk loading, writes to other emitters are
- * blocked.
+ * Bulk loads are split by the same hash and loaded concurrently over all
+ * emitters. When there is no distribution column, rows and changes are
+ * hashed by their table name and primary key. Schema changes are made over
+ * the first emitter without blocking writes to the other emitters, since
+ * rows carry the version of the schema they were built against.
+ *
+ * Changes are written by a writer thread per emitter, such that callers only
+ * queue changes and wait for the results, and a single caller can keep all
+ * connections busy.
+ *
+ * With shard routing, keys of hash-distributed Citus tables are assigned to
+ * emitters by the shard they belong to, such that each connection only
+ * writes to a subset of the shards. With a worker pool, bulk loads are copied
+ * straight into the shards on the worker nodes.
+ *
+ * When the tables keep the sequence number of the last change to each row,
+ * changes can be applied in any order. With unordered apply, changes are then
+ * spread evenly over the writers that have the fewest pending writes instead
+ * of by key.
  */
-public class HashedMultiEmitter implements TableEmitter {
+public class HashedMultiEmitter implements AsyncTableEmitter {
+
+	private static final Log LOG = LogFactory.getLog(HashedMultiEmitter.class);
+
+	/* orders modifications by table and primary key */
+	static final Comparator<TableModification> KEY_ORDER = new Comparator<TableModification>() {
+		@Override
+		public int compare(TableModification left, TableModification right) {
+			return left.getPrimaryKeyValue().compareTo(right.getPrimaryKeyValue());
+		}
+	};
+
+	static final int DEFAULT_WRITER_QUEUE_SIZE = 64;
 
 	final List<TableEmitter> emitters;
-	final ReadWriteLock lock;
+	final List<ConnectionWriter> writers;
+	final ExecutorService copyExecutor;
+
+	/* shard routers by qualified table name, null if a table is not hash-distributed */
+	final Map<String,CitusShardRouter> shardRouters;
+	boolean shardRouting;
+	boolean unorderedApply;
+	CitusWorkerPool workerPool;
 
 	public HashedMultiEmitter(List<TableEmitter> emitters) {
-		this.emitters = emitters;
-		this.lock = new ReentrantReadWriteLock();
+		this(emitters, DEFAULT_WRITER_QUEUE_SIZE);
+	}
 
+	public HashedMultiEmitter(List<TableEmitter> emitters, int writerQueueSize) {
 		if (emitters.isEmpty()) {
 			throw new Error("emitters cannot be empty");
 		}
+
+		this.emitters = emitters;
+		this.copyExecutor = Executors.newFixedThreadPool(emitters.size(),
+				new ThreadFactoryBuilder().setNameFormat("copy-%d").setDaemon(true).build());
+		this.writers = new ArrayList<>(emitters.size());
+		this.shardRouters = new HashMap<>();
+		this.shardRouting = false;
+		this.unorderedApply = false;
+		this.workerPool = null;
+
+		ThreadFactory writerThreadFactory = new ThreadFactoryBuilder().setNameFormat("writer-%d").setDaemon(true).build();
+
+		for (TableEmitter emitter : emitters) {
+			writers.add(new ConnectionWriter(emitter, writerQueueSize, writerThreadFactory));
+		}
+	}
+
+	/*
+	 * setShardRouting enables assigning keys of hash-distributed Citus tables
+	 * to emitters by shard.
+	 */
+	public void setShardRouting(boolean shardRouting) {
+		this.shardRouting = shardRouting;
+	}
+
+	/*
+	 * setWorkerPool makes bulk loads of hash-distributed Citus tables copy
+	 * rows straight into the shards on the worker nodes. Shards with more
+	 * than one placement are loaded through the coordinator.
+	 */
+	public void setWorkerPool(CitusWorkerPool workerPool) {
+		this.workerPool = workerPool;
+		this.shardRouting = shardRouting || workerPool != null;
+	}
+
+	/*
+	 * setUnorderedApply makes upserts, deletes and batches of changes go to
+	 * the least loaded writers rather than the writer of the key. This is only
+	 * safe when changes to the same key can be applied in any order, as is the
+	 * case for sequenced tables. Since writers may then write the same keys
+	 * concurrently, batches are sorted by key to avoid deadlocks between
+	 * their transactions.
+	 */
+	public void setUnorderedApply(boolean unorderedApply) {
+		this.unorderedApply = unorderedApply;
 	}
 
 	@Override
 	public TableSchema fetchSchema(String tableName, String schemaName) {
-		lock.writeLock().lock();
-
-		try {
-			TableEmitter emitter = emitters.get(0);
-			return emitter.fetchSchema(tableName, schemaName);
-		} finally {
-			lock.writeLock().unlock();
-		}
+		TableEmitter emitter = emitters.get(0);
+		return emitter.fetchSchema(tableName, schemaName);
 	}
 
 	@Override
 	public void createTable(TableSchema tableSchema) {
-		lock.writeLock().lock();
-
-		try {
-			TableEmitter emitter = emitters.get(0);
-			emitter.createTable(tableSchema);
-		} finally {
-			lock.writeLock().unlock();
-		}
+		TableEmitter emitter = emitters.get(0);
+		emitter.createTable(tableSchema);
 	}
 
 	@Override
 	public void createColumn(TableColumn column) {
-		lock.writeLock().lock();
-
-		try {
-			TableEmitter emitter = emitters.get(0);
+		TableEmitter emitter = emitters.get(0);
 
+		synchronized (emitter) {
 			emitter.createColumn(column);
-		} finally {
-			lock.writeLock().unlock();
 		}
 	}
 
 	@Override
-	public long copyFromReader(TableSchema tableSchema, Reader reader) {
-		lock.writeLock().lock();
+	public void createColumns(List<TableColumn> columns) {
+		TableEmitter emitter = emitters.get(0);
 
-		try {
-			TableEmitter emitter = emitters.get(0);
+		synchronized (emitter) {
+			emitter.createColumns(columns);
+		}
+	}
+
+	@Override
+	public long copyFromReader(TableSchema tableSchema, Reader reader) {
+		TableEmitter emitter = emitters.get(0);
 
+		synchronized (emitter) {
 			return emitter.copyFromReader(tableSchema, reader);
-		} finally {
-			lock.writeLock().unlock();
 		}
 	}
 
+	/*
+	 * copyFromBatch splits the batch by the hash of the distribution column, or
+	 * the primary key if there is none, and loads the parts concurrently over
+	 * all emitters. Since every part is loaded by a separate COPY, a failure
+	 * may leave some of the parts loaded.
+	 */
 	@Override
-	public void upsert(TableRow tableRow) {
-		lock.readLock().lock();
+	public long copyFromBatch(final TableSchema tableSchema, TableRowBatch batch) {
+		CitusShardRouter shardRouter = workerPool != null ? getShardRouter(tableSchema) : null;
 
-		try {
-			int emitterIndex = 0;
-			TableColumn distributionColumn = tableRow.tableSchema.getDistributionColumn();
+		if (shardRouter != null) {
+			return copyToWorkers(tableSchema, batch, shardRouter);
+		}
+
+		return loadPartitions(tableSchema, batch, false);
+	}
+
+	/*
+	 * upsertFromBatch splits the batch in the same way as copyFromBatch and
+	 * merges the parts concurrently through the staging table of each
+	 * emitter, overwriting rows that already exist.
+	 */
+	@Override
+	public long upsertFromBatch(final TableSchema tableSchema, TableRowBatch batch) {
+		return loadPartitions(tableSchema, batch, true);
+	}
+
+	/*
+	 * loadPartitions splits the batch by emitter index and loads each part on
+	 * its own emitter, either by copy or by upsert.
+	 */
+	long loadPartitions(final TableSchema tableSchema, TableRowBatch batch, final boolean upsert) {
+		List<TableRowBatch> partitions = new ArrayList<>(emitters.size());
+
+		for (int i = 0; i < emitters.size(); i++) {
+			partitions.add(new TableRowBatch());
+		}
 
-			if (distributionColumn != null) {
-				String distributionColumnName = distributionColumn.name;
-				String distributionColumnValue = tableRow.getValue(distributionColumnName).toString();
-				emitterIndex = Math.abs(distributionColumnValue.hashCode()) % emitters.size();
+		for (TableRow tableRow : batch.getRows()) {
+			partitions.get(emitterIndex(tableRow)).addRow(tableRow);
+		}
+
+		List<Future<Long>> results = new ArrayList<>(emitters.size());
+
+		for (int i = 0; i < emitters.size(); i++) {
+			final TableEmitter emitter = emitters.get(i);
+			final TableRowBatch partition = partitions.get(i);
+
+			if (partition.size() == 0) {
+				continue;
 			}
 
-			TableEmitter emitter = emitters.get(emitterIndex);
+			results.add(copyExecutor.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					synchronized (emitter) {
+						if (upsert) {
+							return emitter.upsertFromBatch(tableSchema, partition);
+						}
 
-			synchronized (emitter) {
-				emitter.upsert(tableRow);
+						return emitter.copyFromBatch(tableSchema, partition);
+					}
+				}
+			}));
+		}
+
+		return sumResults(results);
+	}
+
+	/*
+	 * copyToWorkers splits the batch by shard and copies each part straight
+	 * into the shard on its worker node. If a direct copy fails, for example
+	 * because the shard moved, the shard metadata is read again on the next
+	 * batch and the part is loaded through the coordinator instead.
+	 */
+	long copyToWorkers(final TableSchema tableSchema, TableRowBatch batch, final CitusShardRouter shardRouter) {
+		List<TableRowBatch> shardBatches = new ArrayList<>(shardRouter.getShardCount());
+
+		for (int i = 0; i < shardRouter.getShardCount(); i++) {
+			shardBatches.add(new TableRowBatch());
+		}
+
+		TableRowBatch unroutedBatch = new TableRowBatch();
+
+		for (TableRow tableRow : batch.getRows()) {
+			int shardIndex = shardRouter.shardIndex(tableRow.getPrimaryKeyValue());
+
+			if (shardIndex >= 0) {
+				shardBatches.get(shardIndex).addRow(tableRow);
+			} else {
+				unroutedBatch.addRow(tableRow);
+			}
+		}
+
+		List<Future<Long>> results = new ArrayList<>();
+
+		for (int i = 0; i < shardBatches.size(); i++) {
+			final int shardIndex = i;
+			final CitusShard shard = shardRouter.getShard(shardIndex);
+			final TableRowBatch shardBatch = shardBatches.get(shardIndex);
+			final String shardTableName = shard.getShardTableName(tableSchema);
+			final TableEmitter coordinatorEmitter = emitters.get(shardIndex % emitters.size());
+
+			if (shardBatch.size() == 0) {
+				continue;
+			}
+
+			if (shard.placements.size() != 1 || shardTableName == null) {
+				results.add(copyExecutor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws Exception {
+						synchronized (coordinatorEmitter) {
+							return coordinatorEmitter.copyFromBatch(tableSchema, shardBatch);
+						}
+					}
+				}));
+				continue;
+			}
+
+			results.add(copyExecutor.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					try {
+						JDBCTableEmitter workerEmitter = workerPool.getEmitter(shard.placements.get(0), shardIndex);
+
+						synchronized (workerEmitter) {
+							return workerEmitter.copyIntoShard(shardTableName, tableSchema, shardBatch);
+						}
+					} catch (EmissionException e) {
+						LOG.warn(String.format("Failed to copy into %s, loading through the coordinator: %s",
+								shard, e.getMessage()));
+
+						invalidateShardRouter(tableSchema, shardRouter);
+
+						synchronized (coordinatorEmitter) {
+							return coordinatorEmitter.copyFromBatch(tableSchema, shardBatch);
+						}
+					}
+				}
+			}));
+		}
+
+		if (unroutedBatch.size() > 0) {
+			final TableEmitter coordinatorEmitter = emitters.get(0);
+			final TableRowBatch coordinatorBatch = unroutedBatch;
+
+			results.add(copyExecutor.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					synchronized (coordinatorEmitter) {
+						return coordinatorEmitter.copyFromBatch(tableSchema, coordinatorBatch);
+					}
+				}
+			}));
+		}
+
+		return sumResults(results);
+	}
+
+	/*
+	 * getShardRouter returns the shard router of a table, reading the shard
+	 * metadata when the table is first used, or null if the table is not a
+	 * hash-distributed Citus table.
+	 */
+	CitusShardRouter getShardRouter(TableSchema tableSchema) {
+		String tableName = tableSchema.getQualifiedTableName();
+
+		synchronized (shardRouters) {
+			if (shardRouters.containsKey(tableName)) {
+				return shardRouters.get(tableName);
 			}
-		} finally {
-			lock.readLock().unlock();
 		}
+
+		TableEmitter emitter = emitters.get(0);
+		CitusShardRouter shardRouter;
+
+		synchronized (emitter) {
+			shardRouter = emitter.fetchShardRouter(tableSchema);
+		}
+
+		synchronized (shardRouters) {
+			shardRouters.put(tableName, shardRouter);
+		}
+
+		if (shardRouter != null) {
+			LOG.info(String.format("Routing writes to table %s by shard over %d shards",
+					tableSchema.tableName, shardRouter.getShardCount()));
+		}
+
+		return shardRouter;
+	}
+
+	void invalidateShardRouter(TableSchema tableSchema, CitusShardRouter shardRouter) {
+		synchronized (shardRouters) {
+			shardRouters.remove(tableSchema.getQualifiedTableName(), shardRouter);
+		}
+	}
+
+	/*
+	 * emitterIndex returns the index of the emitter to use for a row based on
+	 * the hash of its primary key.
+	 */
+	int emitterIndex(TableRow tableRow) {
+		return emitterIndex(tableRow.getPrimaryKeyValue());
+	}
+
+	/*
+	 * emitterIndex returns the index of the emitter to use for a key based on
+	 * the hash of the table name and its distribution column value or, if
+	 * there is none, all primary key values. Including the table name spreads
+	 * tables with similar keys across different emitters. Since
+	 * the hash only depends on the key, all writes to a key use the same
+	 * emitter and are applied in order.
+	 */
+	int emitterIndex(PrimaryKeyValue primaryKeyValue) {
+		TableSchema tableSchema = primaryKeyValue.tableSchema;
+		TableColumn distributionColumn = tableSchema.getDistributionColumn();
+		int hash;
+
+		if (distributionColumn != null && shardRouting) {
+			CitusShardRouter shardRouter = getShardRouter(tableSchema);
+			int shardIndex = shardRouter != null ? shardRouter.shardIndex(primaryKeyValue) : -1;
+
+			if (shardIndex >= 0) {
+				return shardIndex % emitters.size();
+			}
+		}
+
+		if (distributionColumn != null) {
+			TableColumnValue value = primaryKeyValue.getValue(distributionColumn.name);
+			hash = 31 * tableSchema.tableName.hashCode() + (value != null ? value.toString().hashCode() : 0);
+		} else {
+			hash = tableSchema.tableName.hashCode();
+
+			for (String columnName : tableSchema.getPrimaryKeyColumnNames()) {
+				TableColumnValue value = primaryKeyValue.getValue(columnName);
+				hash = 31 * hash + (value != null ? value.toString().hashCode() : 0);
+			}
+		}
+
+		return (hash & Integer.MAX_VALUE) % emitters.size();
+	}
+
+	@Override
+	public void upsert(TableRow tableRow) {
+		waitForResult(upsertAsync(tableRow));
 	}
 
 	@Override
 	public void delete(PrimaryKeyValue primaryKeyValue) {
-		lock.readLock().lock();
+		waitForResult(deleteAsync(primaryKeyValue));
+	}
 
-		try {
-			int emitterIndex = 0;
-			TableColumn distributionColumn = primaryKeyValue.tableSchema.getDistributionColumn();
+	@Override
+	public void applyBatch(List<TableModification> modifications) {
+		waitForResult(applyBatchAsync(modifications));
+	}
 
-			if (distributionColumn != null) {
-				String distributionColumnName = distributionColumn.name;
-				String distributionColumnValue = primaryKeyValue.getValue(distributionColumnName).toString();
-				emitterIndex = Math.abs(distributionColumnValue.hashCode()) % emitters.size();
+	@Override
+	public CompletableFuture<Long> upsertAsync(final TableRow tableRow) {
+		int emitterIndex = unorderedApply ? leastLoadedWriterIndex() : emitterIndex(tableRow);
+		final TableEmitter emitter = emitters.get(emitterIndex);
+
+		return writers.get(emitterIndex).submit(new Callable<Long>() {
+			@Override
+			public Long call() throws Exception {
+				emitter.upsert(tableRow);
+				return 1L;
 			}
+		});
+	}
 
-			TableEmitter emitter = emitters.get(emitterIndex);
+	@Override
+	public CompletableFuture<Long> deleteAsync(final PrimaryKeyValue primaryKeyValue) {
+		int emitterIndex = unorderedApply ? leastLoadedWriterIndex() : emitterIndex(primaryKeyValue);
+		final TableEmitter emitter = emitters.get(emitterIndex);
 
-			synchronized (emitter) {
+		return writers.get(emitterIndex).submit(new Callable<Long>() {
+			@Override
+			public Long call() throws Exception {
 				emitter.delete(primaryKeyValue);
+				return 1L;
 			}
-		} finally {
-			lock.readLock().unlock();
-		}
+		});
 	}
 
+	/*
+	 * applyBatchAsync splits the modifications by the emitter that upsert and
+	 * delete would use for them, preserving their order, and queues the parts
+	 * on the writers of the emitters. With unordered apply, the modifications
+	 * are sorted by key and split into consecutive parts of equal size, which
+	 * are queued on the least loaded writers. The result completes only after every
+	 * part is applied, which in transaction or merge mode means every
+	 * connection committed its part, such that the stream is not checkpointed
+	 * before all changes are applied.
+	 */
 	@Override
-	public void close() {
-		lock.writeLock().lock();
+	public CompletableFuture<Long> applyBatchAsync(List<TableModification> modifications) {
+		List<List<TableModification>> partitions = new ArrayList<>(emitters.size());
+
+		if (unorderedApply) {
+			/* lock rows in the same order as batches on other connections */
+			List<TableModification> sortedModifications = new ArrayList<>(modifications);
+			Collections.sort(sortedModifications, KEY_ORDER);
+
+			int partitionSize = (sortedModifications.size() + emitters.size() - 1) / emitters.size();
+
+			for (int start = 0; start < sortedModifications.size(); start += partitionSize) {
+				int end = Math.min(start + partitionSize, sortedModifications.size());
+				partitions.add(new ArrayList<>(sortedModifications.subList(start, end)));
+			}
+		} else {
+			for (int i = 0; i < emitters.size(); i++) {
+				partitions.add(new ArrayList<TableModification>());
+			}
+
+			for (TableModification modification : modifications) {
+				partitions.get(modificationEmitterIndex(modification)).add(modification);
+			}
+		}
+
+		final List<CompletableFuture<Long>> results = new ArrayList<>(emitters.size());
+
+		for (int i = 0; i < partitions.size(); i++) {
+			final List<TableModification> partition = partitions.get(i);
+
+			if (partition.isEmpty()) {
+				continue;
+			}
+
+			int emitterIndex = unorderedApply ? leastLoadedWriterIndex() : i;
+			final TableEmitter emitter = emitters.get(emitterIndex);
+
+			results.add(writers.get(emitterIndex).submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					emitter.applyBatch(partition);
+					return (long) partition.size();
+				}
+			}));
+		}
 
+		return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()])).
+				thenApply(new Function<Void,Long>() {
+					@Override
+					public Long apply(Void ignored) {
+						long sum = 0;
+
+						for (CompletableFuture<Long> result : results) {
+							sum += result.join();
+						}
+
+						return sum;
+					}
+				});
+	}
+
+	/*
+	 * leastLoadedWriterIndex returns the index of the writer with the fewest
+	 * queued and running writes.
+	 */
+	int leastLoadedWriterIndex() {
+		int leastLoadedIndex = 0;
+		int leastPendingWrites = Integer.MAX_VALUE;
+
+		for (int i = 0; i < writers.size(); i++) {
+			int pendingWrites = writers.get(i).getPendingWriteCount();
+
+			if (pendingWrites < leastPendingWrites) {
+				leastLoadedIndex = i;
+				leastPendingWrites = pendingWrites;
+			}
+		}
+
+		return leastLoadedIndex;
+	}
+
+	/*
+	 * waitForResult waits for an asynchronous write and rethrows the
+	 * EmissionException if it failed.
+	 */
+	long waitForResult(CompletableFuture<Long> result) {
 		try {
-			for (TableEmitter emitter : emitters) {
-				emitter.close();
+			return result.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof EmissionException) {
+				throw (EmissionException) e.getCause();
 			}
-		} finally {
-			lock.writeLock().unlock();
+
+			throw new EmissionException(e);
 		}
 	}
 
-	@Override
-	public Map<String, Object> getMaxPrimaryKey(TableSchema tableSchema) throws EmissionException {
-		lock.readLock().lock();
+	/*
+	 * modificationEmitterIndex returns the index of the emitter to use for a
+	 * modification based on the hash of its key.
+	 */
+	int modificationEmitterIndex(TableModification modification) {
+		return emitterIndex(modification.getPrimaryKeyValue());
+	}
+
+	/*
+	 * sumResults waits for the given results and returns their sum, rethrowing
+	 * the EmissionException of a failed result.
+	 */
+	long sumResults(List<Future<Long>> results) {
 		try {
-			TableEmitter emitter = emitters.get(0);
+			long sum = 0;
+
+			for (Future<Long> result : results) {
+				sum += result.get();
+			}
+
+			return sum;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new EmissionException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof EmissionException) {
+				throw (EmissionException) e.getCause();
+			}
+
+			throw new EmissionException(e);
+		}
+	}
 
-			return emitter.getMaxPrimaryKey(tableSchema);
-		} finally {
-			lock.readLock().unlock();
+	@Override
+	public void close() {
+		copyExecutor.shutdown();
+
+		for (ConnectionWriter writer : writers) {
+			writer.shutdown();
 		}
+
+		if (workerPool != null) {
+			workerPool.close();
+		}
+
+		for (TableEmitter emitter : emitters) {
+			emitter.close();
+		}
+	}
+
+	@Override
+	public List<ScanCursor> loadScanProgress(TableSchema tableSchema) throws EmissionException {
+		TableEmitter emitter = emitters.get(0);
+
+		return emitter.loadScanProgress(tableSchema);
+	}
+
+	@Override
+	public CitusShardRouter fetchShardRouter(TableSchema tableSchema) throws EmissionException {
+		return getShardRouter(tableSchema);
+	}
+
+	@Override
+	public void saveScanProgress(TableSchema tableSchema, ScanCursor cursor) throws EmissionException {
+		TableEmitter emitter = emitters.get(0);
+
+		emitter.saveScanProgress(tableSchema, cursor);
+	}
+
+	@Override
+	public boolean hasRows(TableSchema tableSchema) throws EmissionException {
+		TableEmitter emitter = emitters.get(0);
+
+		return emitter.hasRows(tableSchema);
 	}
 
 }
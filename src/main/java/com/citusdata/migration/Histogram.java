@@ -0,0 +1,98 @@
+/**
+ *
+ */
+package com.citusdata.migration;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Histogram counts recorded values in power-of-two buckets, such that the
+ * distribution of for example batch sizes can be logged and used for tuning.
+ * Bucket i contains the values in the range [2^(i-1), 2^i), bucket 0 contains
+ * the value 0.
+ */
+public class Histogram {
+
+	static final int NUM_BUCKETS = 64;
+
+	public final String name;
+
+	final AtomicLongArray buckets;
+	final AtomicLong count;
+	final AtomicLong sum;
+	final AtomicLong max;
+
+	public Histogram(String name) {
+		this.name = name;
+		this.buckets = new AtomicLongArray(NUM_BUCKETS);
+		this.count = new AtomicLong();
+		this.sum = new AtomicLong();
+		this.max = new AtomicLong();
+	}
+
+	public void record(long value) {
+		int bucket = NUM_BUCKETS - Long.numberOfLeadingZeros(Math.max(value, 0));
+
+		buckets.incrementAndGet(Math.min(bucket, NUM_BUCKETS - 1));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long currentMax = max.get();
+		while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+			currentMax = max.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMean() {
+		long currentCount = count.get();
+		return currentCount > 0 ? sum.get() / currentCount : 0;
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append(name);
+		sb.append(": count ");
+		sb.append(getCount());
+		sb.append(", mean ");
+		sb.append(getMean());
+		sb.append(", max ");
+		sb.append(getMax());
+		sb.append(" [");
+
+		boolean skipSeparator = true;
+
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			long bucketCount = buckets.get(i);
+
+			if (bucketCount == 0) {
+				continue;
+			}
+
+			if (!skipSeparator) {
+				sb.append(", ");
+			}
+
+			sb.append("<");
+			sb.append(i == NUM_BUCKETS - 1 ? Long.MAX_VALUE : 1L << i);
+			sb.append(": ");
+			sb.append(bucketCount);
+
+			skipSeparator = false;
+		}
+
+		sb.append("]");
+
+		return sb.toString();
+	}
+
+}
@@ -3,28 +3,48 @@
  */
 package com.citusdata.migration;
 
+import java.io.DataOutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.postgresql.PGStatement;
+import org.postgresql.copy.CopyIn;
 import org.postgresql.copy.CopyManager;
 import org.postgresql.core.BaseConnection;
 
+import com.citusdata.migration.datamodel.Delete;
+import com.citusdata.migration.datamodel.Insert;
 import com.citusdata.migration.datamodel.PrimaryKeyValue;
 import com.citusdata.migration.datamodel.TableColumn;
 import com.citusdata.migration.datamodel.TableColumnType;
+import com.citusdata.migration.datamodel.TableColumnValue;
 import com.citusdata.migration.datamodel.TableEmitter;
+import com.citusdata.migration.datamodel.TableModification;
+import com.citusdata.migration.datamodel.TableModificationBatch;
 import com.citusdata.migration.datamodel.TableRow;
+import com.citusdata.migration.datamodel.TableRowBatch;
 import com.citusdata.migration.datamodel.TableSchema;
+import com.citusdata.migration.datamodel.Upsert;
 
 /**
  * @author marco
@@ -32,6 +52,8 @@ import com.citusdata.migration.datamodel.TableSchema;
  */
 public class JDBCTableEmitter implements TableEmitter {
 
+	private static final Log LOG = LogFactory.getLog(JDBCTableEmitter.class);
+
 	final String DESCRIBE_TABLE_SQL = "" + "SELECT " + "  c.column_name, " + "  c.data_type, "
 			+ "  c.is_nullable = 'YES' AS is_nullable, " + "  pk.column_name IS NOT NULL AS is_primary_key " + "FROM "
 			+ "  information_schema.columns c " + "LEFT JOIN (" + "  SELECT"
@@ -48,11 +70,96 @@ public class JDBCTableEmitter implements TableEmitter {
 	final String DISTRIBUTION_COLUMN_SQL = "" + "SELECT " + "  column_to_column_name(logicalrelid, partkey) " + "FROM "
 			+ "  pg_dist_partition " + "WHERE " + "  logicalrelid = ?::regclass";
 
+	/* SQLSTATEs of transactions that were aborted by a concurrent transaction */
+	static final String DEADLOCK_DETECTED = "40P01";
+	static final String SERIALIZATION_FAILURE = "40001";
+
+	/* number of times a batch is attempted before a deadlock is an error */
+	static final int MAX_ATTEMPTS = 5;
+	static final long RETRY_BACKOFF_MILLIS = 100;
+
+	/* runs of modifications that are sent as multi-row commands */
+	static final int MIN_MULTI_ROW_RUN = 100;
+	static final int MAX_ROWS_PER_COMMAND = 1000;
+
+	/* scan cursors of the data load, kept in the schema of the tables */
+	final String SCAN_PROGRESS_EXISTS_SQL = "" + "SELECT to_regclass(?) IS NOT NULL";
+
+	final String CREATE_SCAN_PROGRESS_SQL = "" + "CREATE TABLE IF NOT EXISTS %s.podyn_scan_progress ("
+			+ "  table_name text NOT NULL, " + "  segment int NOT NULL, " + "  total_segments int NOT NULL, "
+			+ "  last_evaluated_key jsonb, " + "  done boolean NOT NULL DEFAULT false, "
+			+ "  updated_at timestamptz NOT NULL DEFAULT now(), " + "  PRIMARY KEY (table_name, segment)" + ")";
+
+	final String LOAD_SCAN_PROGRESS_SQL = "" + "SELECT " + "  segment, total_segments, last_evaluated_key::text, done "
+			+ "FROM " + "  %s.podyn_scan_progress " + "WHERE " + "  table_name = ? " + "ORDER BY " + "  segment";
+
+	final String SAVE_SCAN_PROGRESS_SQL = "" + "INSERT INTO %s.podyn_scan_progress "
+			+ "  (table_name, segment, total_segments, last_evaluated_key, done) " + "VALUES "
+			+ "  (?, ?, ?, ?::jsonb, ?) " + "ON CONFLICT (table_name, segment) DO UPDATE SET "
+			+ "  total_segments = EXCLUDED.total_segments, "
+			+ "  last_evaluated_key = EXCLUDED.last_evaluated_key, " + "  done = EXCLUDED.done, "
+			+ "  updated_at = now()";
+
+	/* shards of a hash-distributed table and their active placements */
+	final String SHARD_PLACEMENTS_SQL = "" + "SELECT "
+			+ "  s.shardid, s.shardminvalue::int, s.shardmaxvalue::int, n.nodename, n.nodeport " + "FROM "
+			+ "  pg_dist_partition d " + "  JOIN pg_dist_shard s ON (s.logicalrelid = d.logicalrelid) "
+			+ "  JOIN pg_dist_placement p ON (p.shardid = s.shardid) "
+			+ "  JOIN pg_dist_node n ON (n.groupid = p.groupid) " + "WHERE "
+			+ "  d.logicalrelid = ?::regclass AND d.partmethod = 'h' AND p.shardstate = 1 " + "ORDER BY "
+			+ "  s.shardminvalue::int, s.shardid";
+
+	final String SET_SYNCHRONOUS_COMMIT_SQL = "" + "SET synchronous_commit TO %s";
+
+	/*
+	 * TableStatements holds the prepared statements for writing to a table
+	 * with the columns of a version of its schema, which are renewed when a
+	 * row of a newer version is written.
+	 */
+	static class TableStatements {
+		final TableSchema tableSchema;
+		final PreparedStatement insertStatement;
+		final PreparedStatement upsertStatement;
+		final PreparedStatement deleteStatement;
+
+		TableStatements(TableSchema tableSchema, PreparedStatement insertStatement, PreparedStatement upsertStatement,
+				PreparedStatement deleteStatement) {
+			this.tableSchema = tableSchema;
+			this.insertStatement = insertStatement;
+			this.upsertStatement = upsertStatement;
+			this.deleteStatement = deleteStatement;
+		}
+
+		void close() throws SQLException {
+			insertStatement.close();
+			upsertStatement.close();
+			deleteStatement.close();
+		}
+	}
+
 	final Connection currentConnection;
 	final PreparedStatement describeTableStatement;
 	final PreparedStatement hasCitusStatement;
 	final PreparedStatement distributionColumnStatement;
 
+	/* COPY data is encoded into a buffer that is reused across batches */
+	final CopyInStream copyStream;
+	final DataOutputStream copyDataOutput;
+	Writer copyWriter;
+
+	CopyFormat copyFormat;
+	LoadMode loadMode;
+	ApplyMode applyMode;
+
+	/* prepared statements of each table on this connection, by qualified name */
+	final Map<String,TableStatements> statementCache;
+
+	/* columns of each temporary table on this connection */
+	final Map<String,String> temporaryTableColumns;
+
+	/* schemas in which this connection created the scan progress table */
+	final Set<String> scanProgressSchemas;
+
 	public JDBCTableEmitter(String url) throws SQLException {
 		this(DriverManager.getConnection(url));
 	}
@@ -62,6 +169,64 @@ public class JDBCTableEmitter implements TableEmitter {
 		this.describeTableStatement = currentConnection.prepareStatement(DESCRIBE_TABLE_SQL);
 		this.hasCitusStatement = currentConnection.prepareStatement(HAS_CITUS_SQL);
 		this.distributionColumnStatement = currentConnection.prepareStatement(DISTRIBUTION_COLUMN_SQL);
+		this.copyStream = new CopyInStream();
+		this.copyWriter = new OutputStreamWriter(copyStream, StandardCharsets.UTF_8);
+		this.copyDataOutput = new DataOutputStream(copyStream);
+		this.copyFormat = CopyFormat.text;
+		this.loadMode = LoadMode.copy;
+		this.applyMode = ApplyMode.statements;
+		this.temporaryTableColumns = new HashMap<>();
+		this.statementCache = new HashMap<>();
+		this.scanProgressSchemas = new HashSet<>();
+	}
+
+	/*
+	 * setCopyFormat sets the format in which copyFromBatch sends rows. The
+	 * binary format avoids hex-encoding bytea and parsing numeric and jsonb
+	 * on the server, but requires the column types of the table to match the
+	 * column types in the schema, as is the case for tables created by podyn.
+	 */
+	public void setCopyFormat(CopyFormat copyFormat) {
+		this.copyFormat = copyFormat;
+	}
+
+	/*
+	 * setApplyMode sets how applyBatch applies changes. In statements mode,
+	 * changes are applied using prepared statements, each in its own
+	 * transaction. In transaction mode, the prepared statements of a batch
+	 * are applied in a single transaction. In merge mode, the last
+	 * change to each key is copied into a temporary change table, which is
+	 * merged into the table using one upsert and one delete per table.
+	 */
+	public void setApplyMode(ApplyMode applyMode) {
+		this.applyMode = applyMode;
+	}
+
+	/*
+	 * setLoadMode sets how copyFromBatch loads rows. In copy mode, rows are
+	 * copied straight into the table and the batch fails if any of the rows
+	 * already exists. In upsert and ignore mode, rows are copied into a
+	 * temporary staging table and then inserted into the table, overwriting
+	 * or skipping existing rows, such that loads can safely be repeated.
+	 */
+	public void setLoadMode(LoadMode loadMode) {
+		this.loadMode = loadMode;
+	}
+
+	/*
+	 * setSynchronousCommit sets synchronous_commit for the session. When it is
+	 * off, a commit returns before its WAL is flushed to disk, which avoids
+	 * waiting for an fsync per transaction, but the last transactions may be
+	 * lost if the server crashes.
+	 */
+	public synchronized void setSynchronousCommit(boolean synchronousCommit) {
+		try {
+			Statement statement = currentConnection.createStatement();
+			statement.execute(String.format(SET_SYNCHRONOUS_COMMIT_SQL, synchronousCommit ? "on" : "off"));
+			statement.close();
+		} catch (SQLException e) {
+			throw new EmissionException(e);
+		}
 	}
 
 	public synchronized TableSchema fetchSchema(String tableName, String schemaName) {
@@ -164,6 +329,159 @@ public class JDBCTableEmitter implements TableEmitter {
 		}
 	}
 
+	public synchronized long copyFromBatch(TableSchema tableSchema, TableRowBatch batch) {
+		if (loadMode != LoadMode.copy) {
+			return mergeFromBatch(tableSchema, batch, loadMode == LoadMode.upsert);
+		}
+
+		if (copyFormat == CopyFormat.binary) {
+			return copyBatch(tableSchema.copyFromStdinBinary(), tableSchema, batch);
+		} else {
+			return copyBatch(tableSchema.copyFromStdin(), tableSchema, batch);
+		}
+	}
+
+	/*
+	 * upsertFromBatch loads a batch through the staging table regardless of
+	 * the load mode, overwriting rows that already exist.
+	 */
+	public synchronized long upsertFromBatch(TableSchema tableSchema, TableRowBatch batch) {
+		return mergeFromBatch(tableSchema, batch, true);
+	}
+
+	/*
+	 * mergeFromBatch copies a batch into the staging table and inserts it into
+	 * the table in a single transaction, updating existing rows if update is
+	 * true and skipping them otherwise. The staging table is emptied on
+	 * commit. A transaction that is aborted by a deadlock is retried.
+	 */
+	long mergeFromBatch(TableSchema tableSchema, TableRowBatch batch, boolean update) {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return mergeFromBatchOnce(tableSchema, batch, update);
+			} catch (EmissionException e) {
+				if (!shouldRetry(e, attempt)) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	long mergeFromBatchOnce(TableSchema tableSchema, TableRowBatch batch, boolean update) {
+		try {
+			currentConnection.setAutoCommit(false);
+
+			try {
+				prepareTemporaryTable(tableSchema.getStagingTableName(), tableSchema.createStagingTableDDL(),
+						tableSchema);
+
+				long numRows;
+
+				if (copyFormat == CopyFormat.binary) {
+					numRows = copyBatch(tableSchema.copyIntoStagingBinary(), tableSchema, batch);
+				} else {
+					numRows = copyBatch(tableSchema.copyIntoStaging(), tableSchema, batch);
+				}
+
+				Statement statement = currentConnection.createStatement();
+				statement.execute(tableSchema.toMergeFromStaging(update));
+				statement.close();
+
+				currentConnection.commit();
+
+				return numRows;
+			} catch (SQLException|RuntimeException e) {
+				currentConnection.rollback();
+
+				/* the staging table may not have survived the rollback */
+				temporaryTableColumns.remove(tableSchema.getStagingTableName());
+
+				throw e;
+			} finally {
+				currentConnection.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			throw new EmissionException(e);
+		}
+	}
+
+	/*
+	 * prepareTemporaryTable creates a temporary table that has the columns of
+	 * the given table, or recreates it if columns were added to the table
+	 * since it was created.
+	 */
+	void prepareTemporaryTable(String temporaryTableName, String createCommand, TableSchema tableSchema)
+			throws SQLException {
+		String columns = String.join(",", tableSchema.getColumnNames());
+
+		if (columns.equals(temporaryTableColumns.get(temporaryTableName))) {
+			return;
+		}
+
+		Statement statement = currentConnection.createStatement();
+		statement.execute("DROP TABLE IF EXISTS " + temporaryTableName);
+		statement.execute(createCommand);
+		statement.close();
+
+		temporaryTableColumns.put(temporaryTableName, columns);
+	}
+
+	/*
+	 * copyIntoShard copies a batch straight into a shard table on a worker
+	 * node, bypassing the coordinator. The rows need to belong to the shard.
+	 */
+	public synchronized long copyIntoShard(String shardTableName, TableSchema tableSchema, TableRowBatch batch) {
+		String copyCommand = "COPY " + shardTableName + " (" + tableSchema.toColumnList() + ") FROM STDIN";
+
+		if (copyFormat == CopyFormat.binary) {
+			copyCommand += " WITH (FORMAT binary)";
+		}
+
+		return copyBatch(copyCommand, tableSchema, batch);
+	}
+
+	/*
+	 * copyBatch sends the rows with the columns of the given version of the
+	 * table schema, which needs to be at least as new as the rows.
+	 */
+	long copyBatch(String copyCommand, TableSchema tableSchema, TableRowBatch batch) {
+		CopyIn copyIn = null;
+
+		try {
+			CopyManager copyManager = new CopyManager((BaseConnection) currentConnection);
+			copyIn = copyManager.copyIn(copyCommand);
+			copyStream.start(copyIn);
+
+			if (copyFormat == CopyFormat.binary) {
+				batch.writeBinaryCopyInput(copyDataOutput, tableSchema);
+			} else {
+				batch.writeCopyInput(copyWriter, tableSchema);
+				copyWriter.flush();
+			}
+
+			copyStream.finish();
+
+			return copyIn.endCopy();
+		} catch (Exception e) {
+			abortCopy(copyIn);
+			throw new EmissionException(e);
+		}
+	}
+
+	void abortCopy(CopyIn copyIn) {
+		copyStream.abort();
+
+		/* the writer may still hold characters of the failed batch */
+		copyWriter = new OutputStreamWriter(copyStream, StandardCharsets.UTF_8);
+
+		if (copyIn != null && copyIn.isActive()) {
+			try {
+				copyIn.cancelCopy();
+			} catch (SQLException e) {
+			}
+		}
+	}
+
 	public synchronized void createColumn(TableColumn column) {
 		try {
 			String query = column.toAlterTableAddColumn();
@@ -174,10 +492,27 @@ public class JDBCTableEmitter implements TableEmitter {
 		}
 	}
 
-	public synchronized void upsert(TableRow tableRow) {
+	/*
+	 * createColumns adds all the columns with a single ALTER TABLE, which
+	 * takes the table lock once and either adds all columns or none.
+	 */
+	public synchronized void createColumns(List<TableColumn> columns) {
 		try {
+			String query = columns.get(0).getTableSchema().toAddColumns(columns);
 			Statement statement = currentConnection.createStatement();
-			statement.execute(tableRow.toUpsert());
+			statement.execute(query);
+			statement.close();
+		} catch (SQLException e) {
+			throw new EmissionException(e);
+		}
+	}
+
+	public synchronized void upsert(TableRow tableRow) {
+		try {
+			TableStatements statements = getStatements(tableRow.tableSchema);
+			PreparedStatement statement = statements.upsertStatement;
+			bindRow(statement, statements.tableSchema, tableRow);
+			statement.executeUpdate();
 		} catch (SQLException e) {
 			throw new EmissionException(e);
 		}
@@ -185,14 +520,482 @@ public class JDBCTableEmitter implements TableEmitter {
 
 	public synchronized void delete(PrimaryKeyValue primaryKeyValue) {
 		try {
-			Statement statement = currentConnection.createStatement();
-			statement.execute(primaryKeyValue.toDelete());
+			PreparedStatement statement = getStatements(primaryKeyValue.tableSchema).deleteStatement;
+			bindKey(statement, primaryKeyValue);
+			statement.executeUpdate();
+		} catch (SQLException e) {
+			throw new EmissionException(e);
+		}
+	}
+
+	/*
+	 * applyBatch applies the modifications in order using prepared statements.
+	 * Consecutive modifications that use the same statement are added to a
+	 * JDBC batch, which the driver sends to the server in a single round trip.
+	 *
+	 * If the server aborts the batch because of a deadlock with another
+	 * connection, the whole batch is applied again. Modifications that were
+	 * already committed are overwritten by the same values, since a batch
+	 * holds the latest modifications of its keys.
+	 */
+	public synchronized void applyBatch(List<TableModification> modifications) {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				applyBatchOnce(modifications);
+				return;
+			} catch (EmissionException e) {
+				if (!shouldRetry(e, attempt)) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	void applyBatchOnce(List<TableModification> modifications) {
+		if (applyMode == ApplyMode.merge) {
+			mergeModifications(modifications);
+			return;
+		}
+
+		try {
+			if (applyMode != ApplyMode.transaction) {
+				executeModifications(modifications);
+				return;
+			}
+
+			currentConnection.setAutoCommit(false);
+
+			try {
+				executeModifications(modifications);
+				currentConnection.commit();
+			} catch (SQLException|RuntimeException e) {
+				currentConnection.rollback();
+				throw e;
+			} finally {
+				currentConnection.setAutoCommit(true);
+			}
 		} catch (SQLException e) {
+			/* discard statements that may still hold parts of the failed batch */
+			closeStatements();
 			throw new EmissionException(e);
 		}
 	}
 
+	/*
+	 * executeModifications executes the prepared statements of the
+	 * modifications in order, using JDBC batches where possible. Long runs of
+	 * modifications of the same kind on the same table are instead sent as
+	 * multi-row commands, which the server executes as a single statement.
+	 */
+	void executeModifications(List<TableModification> modifications) throws SQLException {
+		PreparedStatement batchStatement = null;
+		int index = 0;
+
+		while (index < modifications.size()) {
+			int runLength = runLength(modifications, index);
+
+			if (runLength >= MIN_MULTI_ROW_RUN) {
+				if (batchStatement != null) {
+					batchStatement.executeBatch();
+					batchStatement = null;
+				}
+
+				executeMultiRow(modifications.subList(index, index + runLength));
+				index += runLength;
+				continue;
+			}
+
+			TableModification modification = modifications.get(index++);
+			PrimaryKeyValue primaryKeyValue = null;
+			TableRow tableRow = null;
+			TableSchema tableSchema;
+
+			if (modification instanceof Delete) {
+				primaryKeyValue = ((Delete) modification).getKeyValue();
+				tableSchema = primaryKeyValue.tableSchema;
+			} else if (modification instanceof Insert) {
+				tableRow = ((Insert) modification).getNewRow();
+				tableSchema = tableRow.tableSchema;
+			} else {
+				tableRow = ((Upsert) modification).getNewRow();
+				tableSchema = tableRow.tableSchema;
+			}
+
+			if (batchStatement != null && !hasStatements(tableSchema)) {
+				/* renewing the statements closes the old ones, including the pending batch */
+				batchStatement.executeBatch();
+				batchStatement = null;
+			}
+
+			TableStatements statements = getStatements(tableSchema);
+			PreparedStatement statement;
+
+			if (modification instanceof Delete) {
+				statement = statements.deleteStatement;
+				batchStatement = switchBatch(batchStatement, statement);
+				bindKey(statement, primaryKeyValue);
+			} else if (modification instanceof Insert) {
+				statement = statements.insertStatement;
+				batchStatement = switchBatch(batchStatement, statement);
+				bindRow(statement, statements.tableSchema, tableRow);
+			} else {
+				statement = statements.upsertStatement;
+				batchStatement = switchBatch(batchStatement, statement);
+				bindRow(statement, statements.tableSchema, tableRow);
+			}
+
+			statement.addBatch();
+		}
+
+		if (batchStatement != null) {
+			batchStatement.executeBatch();
+		}
+	}
+
+	/*
+	 * runLength returns the number of consecutive modifications of the same
+	 * kind on the same version of a table, starting at the given index.
+	 */
+	static int runLength(List<TableModification> modifications, int start) {
+		TableModification first = modifications.get(start);
+		TableSchema tableSchema = getTableSchema(first);
+		int end = start + 1;
+
+		while (end < modifications.size()) {
+			TableModification next = modifications.get(end);
+
+			if (next.getClass() != first.getClass() || getTableSchema(next) != tableSchema) {
+				break;
+			}
+
+			end++;
+		}
+
+		return end - start;
+	}
+
+	/*
+	 * getTableSchema returns the schema version of the row or key that the
+	 * modification writes.
+	 */
+	static TableSchema getTableSchema(TableModification modification) {
+		if (modification instanceof Delete) {
+			return ((Delete) modification).getKeyValue().tableSchema;
+		} else if (modification instanceof Insert) {
+			return ((Insert) modification).getNewRow().tableSchema;
+		} else {
+			return ((Upsert) modification).getNewRow().tableSchema;
+		}
+	}
+
+	/*
+	 * executeMultiRow sends a run of modifications as multi-row INSERT,
+	 * INSERT ... ON CONFLICT or DELETE ... IN commands in a single JDBC batch.
+	 */
+	void executeMultiRow(List<TableModification> run) throws SQLException {
+		try (Statement statement = currentConnection.createStatement()) {
+			for (String command : TableModificationBatch.toCommands(run, MAX_ROWS_PER_COMMAND)) {
+				statement.addBatch(command);
+			}
+
+			statement.executeBatch();
+		}
+	}
+
+	/*
+	 * mergeModifications applies the modifications through the change table
+	 * of each table in a single transaction. Since an upsert overwrites the
+	 * whole row and a delete removes it, only the last modification to each
+	 * key determines the outcome, so earlier modifications are skipped and
+	 * the upserts and deletes can be merged in any order. The changes to a
+	 * table are copied with the newest version of its schema among them.
+	 */
+	void mergeModifications(List<TableModification> modifications) {
+		Map<String,Map<PrimaryKeyValue,TableModification>> lastModifications = new LinkedHashMap<>();
+		Map<String,TableSchema> newestSchemas = new HashMap<>();
+
+		for (TableModification modification : modifications) {
+			PrimaryKeyValue primaryKeyValue = modification.getPrimaryKeyValue();
+			String tableName = primaryKeyValue.tableSchema.getQualifiedTableName();
+			Map<PrimaryKeyValue,TableModification> tableModifications = lastModifications.get(tableName);
+
+			if (tableModifications == null) {
+				tableModifications = new LinkedHashMap<>();
+				lastModifications.put(tableName, tableModifications);
+			}
+
+			tableModifications.put(primaryKeyValue, modification);
+
+			TableSchema newestSchema = newestSchemas.get(tableName);
+
+			if (newestSchema == null || newestSchema.getVersion() < primaryKeyValue.tableSchema.getVersion()) {
+				newestSchemas.put(tableName, primaryKeyValue.tableSchema);
+			}
+		}
+
+		try {
+			currentConnection.setAutoCommit(false);
+
+			try {
+				for (Map.Entry<String,Map<PrimaryKeyValue,TableModification>> entry : lastModifications.entrySet()) {
+					TableSchema tableSchema = newestSchemas.get(entry.getKey());
+
+					prepareTemporaryTable(tableSchema.getChangeTableName(), tableSchema.createChangeTableDDL(),
+							tableSchema);
+
+					copyChanges(tableSchema, entry.getValue().values());
+
+					Statement statement = currentConnection.createStatement();
+					statement.execute(tableSchema.toMergeUpsertsFromChangeTable());
+					statement.execute(tableSchema.toMergeDeletesFromChangeTable());
+					statement.close();
+				}
+
+				currentConnection.commit();
+			} catch (SQLException|RuntimeException e) {
+				currentConnection.rollback();
+
+				/* change tables may not have survived the rollback */
+				for (TableSchema tableSchema : newestSchemas.values()) {
+					temporaryTableColumns.remove(tableSchema.getChangeTableName());
+				}
+
+				throw e;
+			} finally {
+				currentConnection.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			throw new EmissionException(e);
+		}
+	}
+
+	/*
+	 * copyChanges copies the changes into the change table in COPY text format,
+	 * where deletes are rows that only contain the primary key.
+	 */
+	long copyChanges(TableSchema tableSchema, Collection<TableModification> changes) {
+		CopyIn copyIn = null;
+
+		try {
+			CopyManager copyManager = new CopyManager((BaseConnection) currentConnection);
+			copyIn = copyManager.copyIn(tableSchema.copyIntoChangeTable());
+			copyStream.start(copyIn);
+
+			for (TableModification change : changes) {
+				if (change instanceof Delete) {
+					((Delete) change).getKeyValue().toRow().writeCopyRow(copyWriter, tableSchema);
+					copyWriter.write("\tt\n");
+				} else if (change instanceof Insert) {
+					((Insert) change).getNewRow().writeCopyRow(copyWriter, tableSchema);
+					copyWriter.write("\tf\n");
+				} else {
+					((Upsert) change).getNewRow().writeCopyRow(copyWriter, tableSchema);
+					copyWriter.write("\tf\n");
+				}
+			}
+
+			copyWriter.flush();
+			copyStream.finish();
+
+			return copyIn.endCopy();
+		} catch (Exception e) {
+			abortCopy(copyIn);
+			throw new EmissionException(e);
+		}
+	}
+
+	/*
+	 * switchBatch executes the pending batch if the next modification uses a
+	 * different statement, such that modifications are applied in order.
+	 */
+	PreparedStatement switchBatch(PreparedStatement batchStatement, PreparedStatement statement) throws SQLException {
+		if (batchStatement != null && batchStatement != statement) {
+			batchStatement.executeBatch();
+		}
+
+		return statement;
+	}
+
+	/*
+	 * shouldRetry returns whether a write that failed on the given attempt
+	 * was aborted by a deadlock or serialization failure and can be
+	 * attempted again, in which case it waits for a backoff first.
+	 */
+	boolean shouldRetry(EmissionException e, int attempt) {
+		if (attempt >= MAX_ATTEMPTS || !isTransactionConflict(e)) {
+			return false;
+		}
+
+		LOG.warn(String.format("Write was aborted by a concurrent transaction, retrying (attempt %d of %d): %s",
+				attempt, MAX_ATTEMPTS, e.getMessage()));
+
+		try {
+			Thread.sleep(RETRY_BACKOFF_MILLIS * attempt);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		return true;
+	}
+
+	/*
+	 * isTransactionConflict returns whether the error or one of its causes is
+	 * a deadlock or serialization failure. Failed JDBC batches report the
+	 * error of the statement that failed as the next exception.
+	 */
+	static boolean isTransactionConflict(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (!(cause instanceof SQLException)) {
+				continue;
+			}
+
+			for (SQLException sqlException = (SQLException) cause; sqlException != null;
+					sqlException = sqlException.getNextException()) {
+				String sqlState = sqlException.getSQLState();
+
+				if (DEADLOCK_DETECTED.equals(sqlState) || SERIALIZATION_FAILURE.equals(sqlState)) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/*
+	 * getStatements returns the prepared statements for the table, preparing
+	 * them if the given version of the schema is newer than the version they
+	 * were prepared for. Rows of older versions are written using the newer
+	 * statements, which set the columns they do not have to NULL.
+	 */
+	TableStatements getStatements(TableSchema tableSchema) throws SQLException {
+		String tableName = tableSchema.getQualifiedTableName();
+		TableStatements statements = statementCache.get(tableName);
+
+		if (statements != null && statements.tableSchema.getVersion() >= tableSchema.getVersion()) {
+			return statements;
+		}
+
+		if (statements != null) {
+			statements.close();
+		}
+
+		statements = new TableStatements(
+				tableSchema,
+				prepareServerSide(tableSchema.toInsert()),
+				prepareServerSide(tableSchema.toUpsert()),
+				prepareServerSide(tableSchema.toDelete()));
+
+		statementCache.put(tableName, statements);
+
+		return statements;
+	}
+
+	/*
+	 * hasStatements returns whether getStatements can return the prepared
+	 * statements for the given version of the schema without renewing them.
+	 */
+	boolean hasStatements(TableSchema tableSchema) {
+		TableStatements statements = statementCache.get(tableSchema.getQualifiedTableName());
+
+		return statements != null && statements.tableSchema.getVersion() >= tableSchema.getVersion();
+	}
+
+	/*
+	 * prepareServerSide prepares a statement that the driver turns into a
+	 * named server-side prepared statement on first use, such that the
+	 * server parses and plans it only once.
+	 */
+	PreparedStatement prepareServerSide(String query) throws SQLException {
+		PreparedStatement statement = currentConnection.prepareStatement(query);
+		statement.unwrap(PGStatement.class).setPrepareThreshold(1);
+		return statement;
+	}
+
+	void closeStatements() {
+		for (TableStatements statements : statementCache.values()) {
+			try {
+				statements.close();
+			} catch (SQLException e) {
+			}
+		}
+
+		statementCache.clear();
+	}
+
+	/*
+	 * bindRow binds the values of the row in the order of the columns in the
+	 * version of the schema that the statement was prepared for.
+	 */
+	static void bindRow(PreparedStatement statement, TableSchema tableSchema, TableRow tableRow) throws SQLException {
+		int parameterIndex = 1;
+
+		for (TableColumn column : tableSchema.getColumns()) {
+			bindValue(statement, parameterIndex++, column.type, tableRow.getValue(column));
+		}
+	}
+
+	static void bindKey(PreparedStatement statement, PrimaryKeyValue primaryKeyValue) throws SQLException {
+		List<TableColumn> primaryKeyColumns = primaryKeyValue.tableSchema.getPrimaryKeyColumns();
+
+		for (int keyIndex = 0; keyIndex < primaryKeyColumns.size(); keyIndex++) {
+			bindValue(statement, keyIndex + 1, primaryKeyColumns.get(keyIndex).type, primaryKeyValue.getValue(keyIndex));
+		}
+	}
+
+	/*
+	 * bindValue binds a value using the JDBC type that corresponds to its
+	 * type. The statements cast every parameter to its column type, which
+	 * also covers jsonb values that are bound as strings.
+	 */
+	static void bindValue(PreparedStatement statement, int parameterIndex, TableColumnType columnType,
+			TableColumnValue value) throws SQLException {
+		if (value == null || value.datum == null) {
+			statement.setNull(parameterIndex, sqlType(columnType));
+			return;
+		}
+
+		switch (value.type) {
+		case numeric:
+			if (value.datum instanceof BigDecimal) {
+				statement.setBigDecimal(parameterIndex, (BigDecimal) value.datum);
+			} else {
+				statement.setBigDecimal(parameterIndex, new BigDecimal(value.datum.toString()));
+			}
+			break;
+		case bool:
+			statement.setBoolean(parameterIndex, (Boolean) value.datum);
+			break;
+		case bytea:
+			statement.setBytes(parameterIndex, value.toByteArray());
+			break;
+		case jsonb:
+		case text:
+		default:
+			statement.setString(parameterIndex, value.toString());
+			break;
+		}
+	}
+
+	static int sqlType(TableColumnType columnType) {
+		switch (columnType) {
+		case numeric:
+			return Types.NUMERIC;
+		case bool:
+			return Types.BOOLEAN;
+		case bytea:
+			return Types.BINARY;
+		case jsonb:
+		case text:
+		default:
+			return Types.VARCHAR;
+		}
+	}
+
 	public synchronized void close() {
+		closeStatements();
+
 		try {
 			currentConnection.close();
 		} catch (SQLException e) {
@@ -200,31 +1003,135 @@ public class JDBCTableEmitter implements TableEmitter {
 		}
 	}
 
+	/*
+	 * loadScanProgress returns the saved scan cursors of the table, creating
+	 * the progress table if it does not exist yet.
+	 */
 	@Override
-	public Map<String, Object> getMaxPrimaryKey(TableSchema tableSchema) throws EmissionException {
-		String query = tableSchema.getMaxPrimaryKeyDml();
-		try {
-			Statement statement = currentConnection.createStatement();
-			ResultSet rs = statement.executeQuery( query );
-			ArrayList<Map<String,Object>> res = this.resultSetToList(rs);
-			return res.size() > 0 ? res.get(0) : null;
+	public synchronized List<ScanCursor> loadScanProgress(TableSchema tableSchema) throws EmissionException {
+		String progressSchema = TableSchema.quoteIdentifier(tableSchema.schemaName);
+		List<ScanCursor> cursors = new ArrayList<>();
+
+		/* the table is only created once a cursor is saved */
+		if (!scanProgressSchemas.contains(progressSchema) && !scanProgressExists(progressSchema)) {
+			return cursors;
+		}
+
+		try (PreparedStatement loadStatement = currentConnection.prepareStatement(
+				String.format(LOAD_SCAN_PROGRESS_SQL, progressSchema))) {
+			loadStatement.setString(1, tableSchema.tableName);
+
+			ResultSet progressResults = loadStatement.executeQuery();
+
+			while (progressResults.next()) {
+				int segment = progressResults.getInt(1);
+				int totalSegments = progressResults.getInt(2);
+				String lastEvaluatedKey = progressResults.getString(3);
+				boolean done = progressResults.getBoolean(4);
+
+				cursors.add(new ScanCursor(segment, totalSegments, -1, ScanCursor.keyFromJson(lastEvaluatedKey), done));
+			}
+
+			return cursors;
 		} catch (SQLException e) {
 			throw new EmissionException(e);
-		} 
+		}
 	}
 
-	private ArrayList<Map<String,Object>> resultSetToList(ResultSet rs) throws SQLException{
-		ResultSetMetaData md = rs.getMetaData();
-		int columns = md.getColumnCount();
-		ArrayList<Map<String,Object>> list = new ArrayList<Map<String,Object>>();
-		while (rs.next()){
-			HashMap<String, Object> row = new HashMap<String, Object>(columns);
-		   	for(int i=1; i<=columns; ++i){           
-				row.put(md.getColumnName(i), rs.getObject(i));
+	/*
+	 * scanProgressExists returns whether the scan progress table exists in the
+	 * given (quoted) schema.
+	 */
+	boolean scanProgressExists(String progressSchema) throws EmissionException {
+		try (PreparedStatement existsStatement = currentConnection.prepareStatement(SCAN_PROGRESS_EXISTS_SQL)) {
+			existsStatement.setString(1, progressSchema + ".podyn_scan_progress");
+
+			ResultSet existsResults = existsStatement.executeQuery();
+			existsResults.next();
+
+			return existsResults.getBoolean(1);
+		} catch (SQLException e) {
+			throw new EmissionException(e);
+		}
+	}
+
+	@Override
+	public synchronized void saveScanProgress(TableSchema tableSchema, ScanCursor cursor) throws EmissionException {
+		String progressSchema = TableSchema.quoteIdentifier(tableSchema.schemaName);
+
+		if (!scanProgressSchemas.contains(progressSchema)) {
+			try (Statement statement = currentConnection.createStatement()) {
+				statement.execute(String.format(CREATE_SCAN_PROGRESS_SQL, progressSchema));
+			} catch (SQLException e) {
+				throw new EmissionException(e);
 			}
-			list.add(row);
+
+			scanProgressSchemas.add(progressSchema);
 		}
-	  
-	   return list;
-	  }
+
+		try (PreparedStatement saveStatement = currentConnection.prepareStatement(
+				String.format(SAVE_SCAN_PROGRESS_SQL, progressSchema))) {
+			saveStatement.setString(1, tableSchema.tableName);
+			saveStatement.setInt(2, cursor.segment);
+			saveStatement.setInt(3, cursor.totalSegments);
+			saveStatement.setString(4, cursor.getLastEvaluatedKeyJson());
+			saveStatement.setBoolean(5, cursor.done);
+			saveStatement.execute();
+		} catch (SQLException e) {
+			throw new EmissionException(e);
+		}
+	}
+
+	/*
+	 * hasRows returns whether the table contains any rows.
+	 */
+	@Override
+	public synchronized boolean hasRows(TableSchema tableSchema) throws EmissionException {
+		try (Statement statement = currentConnection.createStatement();
+				ResultSet results = statement.executeQuery(
+						"SELECT 1 FROM " + tableSchema.getQualifiedTableName() + " LIMIT 1")) {
+			return results.next();
+		} catch (SQLException e) {
+			throw new EmissionException(e);
+		}
+	}
+
+	/*
+	 * fetchShardRouter reads the shards and placements of a hash-distributed
+	 * table from the Citus metadata, or returns null if the table is not
+	 * hash-distributed.
+	 */
+	@Override
+	public synchronized CitusShardRouter fetchShardRouter(TableSchema tableSchema) throws EmissionException {
+		if (tableSchema.getDistributionColumn() == null || !hasCitus()) {
+			return null;
+		}
+
+		try (PreparedStatement shardsStatement = currentConnection.prepareStatement(SHARD_PLACEMENTS_SQL)) {
+			shardsStatement.setString(1, tableSchema.getQualifiedTableName());
+
+			ResultSet shardResults = shardsStatement.executeQuery();
+			List<CitusShard> shards = new ArrayList<>();
+			CitusShard shard = null;
+
+			while (shardResults.next()) {
+				long shardId = shardResults.getLong(1);
+
+				if (shard == null || shard.shardId != shardId) {
+					shard = new CitusShard(shardId, shardResults.getInt(2), shardResults.getInt(3));
+					shards.add(shard);
+				}
+
+				shard.placements.add(new CitusShard.CitusPlacement(shardResults.getString(4), shardResults.getInt(5)));
+			}
+
+			if (shards.isEmpty()) {
+				return null;
+			}
+
+			return new CitusShardRouter(tableSchema, shards);
+		} catch (SQLException e) {
+			throw new EmissionException(e);
+		}
+	}
 }
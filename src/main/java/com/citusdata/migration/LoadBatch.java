@@ -0,0 +1,39 @@
+/**
+ *
+ */
+package com.citusdata.migration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.citusdata.migration.datamodel.TableRowBatch;
+
+/*
+ * LoadBatch is a batch of rows in the data load together with the cursors of
+ * the scan pages the rows came from, such that the scan progress can be saved
+ * once the batch is loaded.
+ */
+public class LoadBatch {
+
+	public final TableRowBatch rows;
+	public final List<ScanCursor> cursors;
+
+	public LoadBatch() {
+		this(new TableRowBatch(), new ArrayList<ScanCursor>());
+	}
+
+	public LoadBatch(TableRowBatch rows, List<ScanCursor> cursors) {
+		this.rows = rows;
+		this.cursors = cursors;
+	}
+
+	public void add(LoadBatch other) {
+		rows.addRows(other.rows);
+		cursors.addAll(other.cursors);
+	}
+
+	public long size() {
+		return rows.size();
+	}
+
+}
@@ -0,0 +1,8 @@
+package com.citusdata.migration;
+
+public enum LoadMode {
+
+	copy,
+	upsert,
+	ignore
+}
@@ -0,0 +1,68 @@
+/**
+ *
+ */
+package com.citusdata.migration;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * PipelineStage keeps track of the time the workers of a stage in the data
+ * load pipeline spend processing, waiting for input from the previous stage
+ * and waiting for room in the queue of the next stage. A stage that is mostly
+ * busy while the other stages wait is the bottleneck of the load.
+ */
+public class PipelineStage {
+
+	public final String name;
+
+	final AtomicLong busyNanos;
+	final AtomicLong inputWaitNanos;
+	final AtomicLong outputWaitNanos;
+	final AtomicLong itemCount;
+
+	public PipelineStage(String name) {
+		this.name = name;
+		this.busyNanos = new AtomicLong();
+		this.inputWaitNanos = new AtomicLong();
+		this.outputWaitNanos = new AtomicLong();
+		this.itemCount = new AtomicLong();
+	}
+
+	public void addBusyTime(long nanos) {
+		busyNanos.addAndGet(nanos);
+	}
+
+	public void addInputWaitTime(long nanos) {
+		inputWaitNanos.addAndGet(nanos);
+	}
+
+	public void addOutputWaitTime(long nanos) {
+		outputWaitNanos.addAndGet(nanos);
+	}
+
+	public void addItems(long count) {
+		itemCount.addAndGet(count);
+	}
+
+	public long getBusyMillis() {
+		return busyNanos.get() / 1000000L;
+	}
+
+	public long getInputWaitMillis() {
+		return inputWaitNanos.get() / 1000000L;
+	}
+
+	public long getOutputWaitMillis() {
+		return outputWaitNanos.get() / 1000000L;
+	}
+
+	public long getItemCount() {
+		return itemCount.get();
+	}
+
+	public String toString() {
+		return String.format("%s: %d items, busy %d ms, waiting for input %d ms, waiting for output %d ms",
+				name, getItemCount(), getBusyMillis(), getInputWaitMillis(), getOutputWaitMillis());
+	}
+
+}
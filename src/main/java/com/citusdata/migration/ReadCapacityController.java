@@ -0,0 +1,224 @@
+/**
+ *
+ */
+package com.citusdata.migration;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputDescription;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.google.common.util.concurrent.RateLimiter;
+
+/*
+ * ReadCapacityController limits the rate at which a table is scanned using
+ * additive increase, multiplicative decrease (AIMD). While the consumed read
+ * capacity stays below the target, the rate increases by a fixed step every
+ * window. When DynamoDB throttles a scan, the rate is halved and the scan
+ * backs off for a random time that grows with the number of attempts.
+ *
+ * When a target fraction is set, the target is that fraction of the
+ * provisioned read capacity of the table, which is refreshed periodically to
+ * pick up auto scaling. For on-demand tables, which have no provisioned
+ * capacity, and when no fraction is set, the target is the maximum scan rate.
+ * The rate never exceeds the maximum scan rate.
+ *
+ * Consumed capacity is also taken from a read budget that is shared with the
+ * scans of other tables, such that the total scan rate across the account
+ * stays within the budget.
+ */
+public class ReadCapacityController {
+
+	private static final Log LOG = LogFactory.getLog(ReadCapacityController.class);
+
+	static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+	static final long REFRESH_NANOS = TimeUnit.MINUTES.toNanos(5);
+	static final double INCREASE_FRACTION = 0.05;
+	static final double DECREASE_FACTOR = 0.5;
+	static final double MIN_RATE = 1.0;
+	static final long BASE_BACKOFF_MILLIS = 50;
+	static final long MAX_BACKOFF_MILLIS = 10000;
+
+	final AmazonDynamoDB dynamoDBClient;
+	final String tableName;
+	final double maxScanRate;
+	final double targetFraction;
+	final RateLimiter rateLimiter;
+	final CapacityBudget readBudget;
+
+	double targetRate;
+	double currentRate;
+	boolean onDemand;
+
+	long windowStart;
+	double windowConsumed;
+	boolean windowThrottled;
+	long lastRefresh;
+
+	public ReadCapacityController(AmazonDynamoDB dynamoDBClient, String tableName, double maxScanRate,
+			double targetFraction, CapacityBudget readBudget) {
+		this.dynamoDBClient = dynamoDBClient;
+		this.tableName = tableName;
+		this.maxScanRate = maxScanRate;
+		this.targetFraction = targetFraction;
+		this.readBudget = readBudget;
+		this.targetRate = maxScanRate;
+		this.onDemand = false;
+
+		if (targetFraction > 0) {
+			refreshTarget();
+			this.currentRate = Math.max(MIN_RATE, targetRate * DECREASE_FACTOR);
+		} else {
+			this.currentRate = targetRate;
+		}
+
+		this.rateLimiter = RateLimiter.create(currentRate);
+		this.windowStart = System.nanoTime();
+		this.windowConsumed = 0;
+		this.windowThrottled = false;
+		this.lastRefresh = windowStart;
+	}
+
+	/*
+	 * refreshTarget reads the provisioned read capacity of the table and sets
+	 * the target rate accordingly. The table is described without holding the
+	 * lock, such that scanners are not held up by the request. If describing
+	 * the table fails, the previous target is kept.
+	 */
+	void refreshTarget() {
+		Long readCapacityUnits;
+
+		try {
+			TableDescription tableDescription = dynamoDBClient.describeTable(tableName).getTable();
+			ProvisionedThroughputDescription throughput = tableDescription.getProvisionedThroughput();
+			readCapacityUnits = throughput != null ? throughput.getReadCapacityUnits() : null;
+		} catch (RuntimeException e) {
+			LOG.warn(String.format("Failed to refresh the read capacity of table %s, keeping the scan target " +
+					"of %.1f reads/sec: %s", tableName, getTargetRate(), e.getMessage()));
+			return;
+		}
+
+		setTarget(readCapacityUnits);
+	}
+
+	synchronized void setTarget(Long readCapacityUnits) {
+		onDemand = readCapacityUnits == null || readCapacityUnits == 0;
+
+		if (onDemand) {
+			targetRate = maxScanRate;
+		} else {
+			targetRate = Math.min(maxScanRate, Math.max(MIN_RATE, readCapacityUnits * targetFraction));
+		}
+
+		/* the constructor sets the initial target before creating the rate limiter */
+		if (rateLimiter != null) {
+			setRate(Math.min(currentRate, targetRate));
+		} else {
+			currentRate = Math.min(currentRate, targetRate);
+		}
+
+		LOG.info(String.format("Scan target for table %s is %.1f reads/sec (%s)", tableName, targetRate,
+				onDemand ? "on-demand" : readCapacityUnits + " provisioned read capacity units"));
+	}
+
+	/*
+	 * consume accounts for the capacity consumed by a scan request and waits
+	 * until both the rate limiter of the table and the shared read budget
+	 * allow the next request.
+	 */
+	public void consume(double consumedCapacity) {
+		int permits = Math.max(1, (int) Math.ceil(consumedCapacity));
+
+		if (adjust(consumedCapacity)) {
+			refreshTarget();
+		}
+
+		rateLimiter.acquire(permits);
+		readBudget.acquire(permits);
+	}
+
+	/*
+	 * adjust updates the rate at the end of every window and returns whether
+	 * the target should be refreshed, which the caller does after releasing
+	 * the lock.
+	 */
+	synchronized boolean adjust(double consumedCapacity) {
+		long now = System.nanoTime();
+
+		windowConsumed += consumedCapacity;
+
+		if (now - windowStart < WINDOW_NANOS) {
+			return false;
+		}
+
+		double consumedRate = windowConsumed * WINDOW_NANOS / (now - windowStart);
+
+		if (!windowThrottled && consumedRate <= targetRate) {
+			setRate(Math.min(targetRate, currentRate + Math.max(MIN_RATE, targetRate * INCREASE_FRACTION)));
+		} else if (consumedRate > targetRate) {
+			setRate(Math.max(MIN_RATE, currentRate * targetRate / consumedRate));
+		}
+
+		windowStart = now;
+		windowConsumed = 0;
+		windowThrottled = false;
+
+		if (targetFraction > 0 && now - lastRefresh >= REFRESH_NANOS) {
+			lastRefresh = now;
+			return true;
+		}
+
+		return false;
+	}
+
+	/*
+	 * throttled decreases the rate after DynamoDB rejected a scan request and
+	 * returns the number of milliseconds to wait before retrying, chosen at
+	 * random up to an exponentially growing limit.
+	 */
+	public long throttled(int attempt) {
+		synchronized (this) {
+			if (!windowThrottled) {
+				/* decrease at most once per window */
+				windowThrottled = true;
+				setRate(Math.max(MIN_RATE, currentRate * DECREASE_FACTOR));
+
+				LOG.info(String.format("Scan of table %s was throttled, reducing rate to %.1f reads/sec",
+						tableName, currentRate));
+			}
+		}
+
+		return backoff(attempt);
+	}
+
+	/*
+	 * backoff returns a random number of milliseconds to wait before retry
+	 * attempt, up to an exponentially growing limit.
+	 */
+	public static long backoff(int attempt) {
+		long maxBackoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 20));
+		return ThreadLocalRandom.current().nextLong(maxBackoff + 1);
+	}
+
+	void setRate(double rate) {
+		currentRate = rate;
+		rateLimiter.setRate(rate);
+	}
+
+	public synchronized double getRate() {
+		return currentRate;
+	}
+
+	public synchronized double getTargetRate() {
+		return targetRate;
+	}
+
+	public String toString() {
+		return String.format("scan rate %.1f of %.1f reads/sec", getRate(), getTargetRate());
+	}
+
+}
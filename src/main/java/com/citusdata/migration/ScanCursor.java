@@ -0,0 +1,123 @@
+/**
+ *
+ */
+package com.citusdata.migration;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.util.json.Jackson;
+
+/*
+ * ScanCursor is the position of the scan of a single segment of a DynamoDB
+ * table: the key from which the next page of the segment starts, or no key if
+ * the segment has not been scanned yet or is done. Cursors are persisted in
+ * the database after the pages before them are loaded, such that an
+ * interrupted data load resumes where it left off.
+ */
+public class ScanCursor {
+
+	public final int segment;
+	public final int totalSegments;
+	public final long sequenceNumber;
+	public final Map<String,AttributeValue> lastEvaluatedKey;
+	public final boolean done;
+
+	public ScanCursor(int segment, int totalSegments, long sequenceNumber,
+			Map<String,AttributeValue> lastEvaluatedKey, boolean done) {
+		this.segment = segment;
+		this.totalSegments = totalSegments;
+		this.sequenceNumber = sequenceNumber;
+		this.lastEvaluatedKey = lastEvaluatedKey;
+		this.done = done;
+	}
+
+	/*
+	 * start returns the cursor of a segment that has not been scanned yet.
+	 */
+	public static ScanCursor start(int segment, int totalSegments) {
+		return new ScanCursor(segment, totalSegments, -1, null, false);
+	}
+
+	/*
+	 * getLastEvaluatedKeyJson returns the last evaluated key as a JSON object
+	 * that maps attribute names to an object with the attribute type (S, N, or
+	 * B) and value, or null if there is no key. Binary values are encoded in
+	 * base64.
+	 */
+	public String getLastEvaluatedKeyJson() {
+		if (lastEvaluatedKey == null) {
+			return null;
+		}
+
+		Map<String,Map<String,String>> jsonKey = new HashMap<>();
+
+		for (Map.Entry<String,AttributeValue> entry : lastEvaluatedKey.entrySet()) {
+			AttributeValue value = entry.getValue();
+			Map<String,String> typedValue = new HashMap<>();
+
+			if (value.getS() != null) {
+				typedValue.put("S", value.getS());
+			} else if (value.getN() != null) {
+				typedValue.put("N", value.getN());
+			} else if (value.getB() != null) {
+				ByteBuffer buffer = value.getB().duplicate();
+				byte[] bytes = new byte[buffer.remaining()];
+				buffer.get(bytes);
+
+				typedValue.put("B", Base64.getEncoder().encodeToString(bytes));
+			} else {
+				throw new IllegalArgumentException("unsupported key attribute type: " + value);
+			}
+
+			jsonKey.put(entry.getKey(), typedValue);
+		}
+
+		return Jackson.toJsonString(jsonKey);
+	}
+
+	/*
+	 * keyFromJson parses a key that was encoded by getLastEvaluatedKeyJson.
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String,AttributeValue> keyFromJson(String json) {
+		if (json == null) {
+			return null;
+		}
+
+		Map<String,Map<String,String>> jsonKey = Jackson.fromJsonString(json, Map.class);
+		Map<String,AttributeValue> key = new HashMap<>();
+
+		for (Map.Entry<String,Map<String,String>> entry : jsonKey.entrySet()) {
+			Map<String,String> typedValue = entry.getValue();
+			AttributeValue value = new AttributeValue();
+
+			if (typedValue.containsKey("S")) {
+				value.setS(typedValue.get("S"));
+			} else if (typedValue.containsKey("N")) {
+				value.setN(typedValue.get("N"));
+			} else if (typedValue.containsKey("B")) {
+				value.setB(ByteBuffer.wrap(Base64.getDecoder().decode(typedValue.get("B"))));
+			} else {
+				throw new IllegalArgumentException("unsupported key attribute type: " + typedValue);
+			}
+
+			key.put(entry.getKey(), value);
+		}
+
+		return key;
+	}
+
+	public String toString() {
+		if (done) {
+			return String.format("segment %d of %d: done", segment, totalSegments);
+		}
+
+		return String.format("segment %d of %d: %s", segment, totalSegments,
+				lastEvaluatedKey != null ? getLastEvaluatedKeyJson() : "not started");
+	}
+
+}
@@ -0,0 +1,47 @@
+/**
+ *
+ */
+package com.citusdata.migration;
+
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+/*
+ * ScanPage is a single page of items returned by a scan of one segment of a
+ * DynamoDB table, together with the key from which the next page of the same
+ * segment starts.
+ */
+public class ScanPage {
+
+	public final int segment;
+	public final long sequenceNumber;
+	public final List<Map<String,AttributeValue>> items;
+	public final Map<String,AttributeValue> lastEvaluatedKey;
+
+	public ScanPage(int segment, long sequenceNumber, List<Map<String,AttributeValue>> items,
+			Map<String,AttributeValue> lastEvaluatedKey) {
+		this.segment = segment;
+		this.sequenceNumber = sequenceNumber;
+		this.items = items;
+		this.lastEvaluatedKey = lastEvaluatedKey;
+	}
+
+	public boolean isLastPage() {
+		return lastEvaluatedKey == null;
+	}
+
+	public int size() {
+		return items.size();
+	}
+
+	/*
+	 * getCursor returns the position from which the scan of the segment
+	 * continues after this page.
+	 */
+	public ScanCursor getCursor(int totalSegments) {
+		return new ScanCursor(segment, totalSegments, sequenceNumber, lastEvaluatedKey, isLastPage());
+	}
+
+}
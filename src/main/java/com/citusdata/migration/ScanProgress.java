@@ -0,0 +1,71 @@
+/**
+ *
+ */
+package com.citusdata.migration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/*
+ * ScanProgress tracks which scan pages of each segment have been loaded into
+ * the database. Pages are loaded out of order when multiple converters and
+ * writers are used, so the cursor of a segment only advances once all pages
+ * before it are loaded. Whenever the cursor of a segment advances, it is
+ * saved, such that a restarted load only scans pages that were not loaded.
+ *
+ * A cursor is saved in its own transaction after the rows of its pages are
+ * committed, so pages are loaded at least once: if the load stops between
+ * the two, the pages are scanned and loaded again when it resumes, and are
+ * then upserted over the rows that were already committed. A cursor is never
+ * saved ahead of rows that are not committed.
+ */
+public class ScanProgress {
+
+	final DynamoDBTableReplicator replicator;
+
+	/* sequence number of the next page of each segment that is not loaded */
+	final long[] nextSequenceNumbers;
+
+	/* pages that were loaded before all preceding pages of the segment */
+	final List<TreeMap<Long,ScanCursor>> loadedAhead;
+
+	public ScanProgress(DynamoDBTableReplicator replicator, int totalSegments) {
+		this.replicator = replicator;
+		this.nextSequenceNumbers = new long[totalSegments];
+		this.loadedAhead = new ArrayList<>(totalSegments);
+
+		for (int segment = 0; segment < totalSegments; segment++) {
+			loadedAhead.add(new TreeMap<Long,ScanCursor>());
+		}
+	}
+
+	/*
+	 * loaded marks the pages of the given cursors as loaded and saves the
+	 * cursor of each segment that advanced as a result. Cursors are saved
+	 * while holding the lock, such that a saved cursor never moves backwards.
+	 */
+	public synchronized void loaded(List<ScanCursor> cursors) {
+		ScanCursor[] advancedCursors = new ScanCursor[nextSequenceNumbers.length];
+
+		for (ScanCursor cursor : cursors) {
+			loadedAhead.get(cursor.segment).put(cursor.sequenceNumber, cursor);
+		}
+
+		for (int segment = 0; segment < nextSequenceNumbers.length; segment++) {
+			TreeMap<Long,ScanCursor> segmentCursors = loadedAhead.get(segment);
+
+			while (!segmentCursors.isEmpty() && segmentCursors.firstKey() == nextSequenceNumbers[segment]) {
+				advancedCursors[segment] = segmentCursors.pollFirstEntry().getValue();
+				nextSequenceNumbers[segment]++;
+			}
+		}
+
+		for (ScanCursor cursor : advancedCursors) {
+			if (cursor != null) {
+				replicator.saveScanCursor(cursor);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+/**
+ *
+ */
+package com.citusdata.migration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.citusdata.migration.datamodel.TableColumnType;
+
+/*
+ * SchemaSampler infers the attributes of a table and their types from a
+ * sample of its items before the table is created, such that the data load
+ * does not need to add columns while rows are being copied. The sample is
+ * taken from the first pages of a few parallel scan segments, which start at
+ * different points in the key space.
+ *
+ * An attribute that appears in a fraction p of the items is missed by a
+ * sample of n items with probability (1 - p)^n. With confidence c, the sample
+ * therefore finds every attribute that appears in at least 1 - (1 - c)^(1/n)
+ * of the items, which is reported after sampling. Attributes that the sample
+ * misses are still added as columns when the data load first sees them.
+ */
+public class SchemaSampler {
+
+	private static final Log LOG = LogFactory.getLog(SchemaSampler.class);
+
+	static final int SAMPLE_SEGMENTS = 4;
+
+	final DynamoDBTableReplicator replicator;
+	final ExecutorService executor;
+	final int sampleSize;
+	final double confidence;
+
+	/* number of sampled items with each attribute and type, in the order attributes were first seen */
+	final Map<String,Map<TableColumnType,Integer>> typeCounts;
+	int numItems;
+
+	public SchemaSampler(DynamoDBTableReplicator replicator, ExecutorService executor, int sampleSize,
+			double confidence) {
+		if (sampleSize < 1) {
+			throw new IllegalArgumentException("schema sample needs at least 1 item");
+		}
+		if (confidence <= 0 || confidence >= 1) {
+			throw new IllegalArgumentException("schema sample confidence must be between 0 and 1");
+		}
+
+		this.replicator = replicator;
+		this.executor = executor;
+		this.sampleSize = sampleSize;
+		this.confidence = confidence;
+		this.typeCounts = new LinkedHashMap<>();
+		this.numItems = 0;
+	}
+
+	/*
+	 * sample scans the sample segments concurrently until each has returned
+	 * its share of the sample size. If sampling fails, the sample is discarded
+	 * and no attributes are inferred.
+	 */
+	public void sample(final ReadCapacityController capacityController) {
+		final int segmentSize = (sampleSize + SAMPLE_SEGMENTS - 1) / SAMPLE_SEGMENTS;
+		List<Future<List<Map<String,AttributeValue>>>> results = new ArrayList<>(SAMPLE_SEGMENTS);
+		long startTime = System.currentTimeMillis();
+
+		for (int segment = 0; segment < SAMPLE_SEGMENTS; segment++) {
+			final int currentSegment = segment;
+
+			results.add(executor.submit(new Callable<List<Map<String,AttributeValue>>>() {
+				@Override
+				public List<Map<String,AttributeValue>> call() throws Exception {
+					return scanSegment(currentSegment, segmentSize, capacityController);
+				}
+			}));
+		}
+
+		try {
+			for (Future<List<Map<String,AttributeValue>>> result : results) {
+				for (Map<String,AttributeValue> item : result.get()) {
+					addItem(item);
+				}
+			}
+		} catch (InterruptedException|ExecutionException e) {
+			if (e instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			}
+
+			for (Future<List<Map<String,AttributeValue>>> result : results) {
+				result.cancel(true);
+			}
+
+			LOG.warn(String.format("Failed to sample table %s, columns are added during the data load: %s",
+					replicator.dynamoTableName, e.getMessage()));
+
+			typeCounts.clear();
+			numItems = 0;
+			return;
+		}
+
+		LOG.info(String.format("Sampled %d of %d items of table %s in %d ms and found %d attributes, " +
+				"which with %.1f%% confidence include every attribute that appears in at least %.2f%% of items",
+				numItems, sampleSize, replicator.dynamoTableName, System.currentTimeMillis() - startTime,
+				typeCounts.size(), confidence * 100, getDetectableFraction() * 100));
+	}
+
+	List<Map<String,AttributeValue>> scanSegment(int segment, int segmentSize,
+			ReadCapacityController capacityController) {
+		List<Map<String,AttributeValue>> items = new ArrayList<>();
+		Map<String,AttributeValue> lastEvaluatedKey = null;
+
+		do {
+			ScanResult scanResult = replicator.scanWithRetries(lastEvaluatedKey, segment, SAMPLE_SEGMENTS,
+					capacityController);
+			items.addAll(scanResult.getItems());
+			lastEvaluatedKey = scanResult.getLastEvaluatedKey();
+
+			capacityController.consume(scanResult.getConsumedCapacity().getCapacityUnits());
+		} while (lastEvaluatedKey != null && items.size() < segmentSize);
+
+		return items.size() > segmentSize ? items.subList(0, segmentSize) : items;
+	}
+
+	void addItem(Map<String,AttributeValue> item) {
+		for (Map.Entry<String,AttributeValue> entry : item.entrySet()) {
+			Map<TableColumnType,Integer> attributeTypes = typeCounts.get(entry.getKey());
+
+			if (attributeTypes == null) {
+				attributeTypes = new EnumMap<>(TableColumnType.class);
+				typeCounts.put(entry.getKey(), attributeTypes);
+			}
+
+			TableColumnType type = DynamoDBTableReplicator.columnTypeFromDynamoValue(entry.getValue());
+			Integer count = attributeTypes.get(type);
+			attributeTypes.put(type, count == null ? 1 : count + 1);
+		}
+
+		numItems++;
+	}
+
+	/*
+	 * getAttributeTypes returns the types of each sampled attribute, most
+	 * frequent first, such that the most frequent type gets the column named
+	 * after the attribute.
+	 */
+	public Map<String,List<TableColumnType>> getAttributeTypes() {
+		Map<String,List<TableColumnType>> attributeTypes = new LinkedHashMap<>();
+
+		for (Map.Entry<String,Map<TableColumnType,Integer>> entry : typeCounts.entrySet()) {
+			final Map<TableColumnType,Integer> counts = entry.getValue();
+			List<TableColumnType> types = new ArrayList<>(counts.keySet());
+
+			Collections.sort(types, new Comparator<TableColumnType>() {
+				@Override
+				public int compare(TableColumnType type, TableColumnType otherType) {
+					return Integer.compare(counts.get(otherType), counts.get(type));
+				}
+			});
+
+			attributeTypes.put(entry.getKey(), types);
+		}
+
+		return attributeTypes;
+	}
+
+	/*
+	 * getDetectableFraction returns the smallest fraction of items in which an
+	 * attribute can appear while still being found by the sample with the
+	 * configured confidence.
+	 */
+	public double getDetectableFraction() {
+		if (numItems == 0) {
+			return 1.0;
+		}
+
+		return 1.0 - Math.pow(1.0 - confidence, 1.0 / numItems);
+	}
+
+	public int getItemCount() {
+		return numItems;
+	}
+
+}
@@ -5,14 +5,21 @@ package com.citusdata.migration;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.citusdata.migration.datamodel.PrimaryKeyValue;
 import com.citusdata.migration.datamodel.TableColumn;
 import com.citusdata.migration.datamodel.TableEmitter;
+import com.citusdata.migration.datamodel.TableModification;
+import com.citusdata.migration.datamodel.TableModificationBatch;
 import com.citusdata.migration.datamodel.TableRow;
+import com.citusdata.migration.datamodel.TableRowBatch;
 import com.citusdata.migration.datamodel.TableSchema;
 
 /**
@@ -21,6 +28,9 @@ import com.citusdata.migration.datamodel.TableSchema;
  */
 public class StdoutSQLEmitter implements TableEmitter {
 
+	/* maximum number of rows or keys in a single command of applyBatch */
+	static final int MAX_ROWS_PER_COMMAND = 1000;
+
 	public StdoutSQLEmitter() {
 	}
 
@@ -39,6 +49,11 @@ public class StdoutSQLEmitter implements TableEmitter {
 		System.out.println(column.toAlterTableAddColumn() + ";");
 	}
 
+	@Override
+	public void createColumns(List<TableColumn> columns) {
+		System.out.println(columns.get(0).getTableSchema().toAddColumns(columns) + ";");
+	}
+
 	@Override
 	public long copyFromReader(TableSchema tableSchema, Reader reader) {
 		long numLines = 0;
@@ -61,6 +76,32 @@ public class StdoutSQLEmitter implements TableEmitter {
 		return numLines;
 	}
 
+	@Override
+	public long copyFromBatch(TableSchema tableSchema, TableRowBatch batch) {
+		System.out.println(tableSchema.copyFromStdin() + ";");
+
+		try {
+			Writer writer = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+			batch.writeCopyInput(writer, tableSchema);
+			writer.flush();
+		} catch (IOException e) {
+			throw new EmissionException(e);
+		}
+
+		System.out.println("\\.\n");
+
+		return batch.size();
+	}
+
+	@Override
+	public long upsertFromBatch(TableSchema tableSchema, TableRowBatch batch) {
+		for (TableRow tableRow : batch.getRows()) {
+			upsert(tableRow);
+		}
+
+		return batch.size();
+	}
+
 	@Override
 	public void upsert(TableRow tableRow) {
 		System.out.println(tableRow.toUpsert() + ";");
@@ -71,14 +112,35 @@ public class StdoutSQLEmitter implements TableEmitter {
 		System.out.println(primaryKeyValue.toDelete() + ";");
 	}
 
+	@Override
+	public void applyBatch(List<TableModification> modifications) {
+		for (String command : TableModificationBatch.toCommands(modifications, MAX_ROWS_PER_COMMAND)) {
+			System.out.println(command + ";");
+		}
+	}
+
 	@Override
 	public void close() {
 
 	}
 
 	@Override
-	public Map<String, Object> getMaxPrimaryKey(TableSchema tableSchema) throws EmissionException {
-		System.out.println(tableSchema.getMaxPrimaryKeyDml());
+	public List<ScanCursor> loadScanProgress(TableSchema tableSchema) throws EmissionException {
+		return new ArrayList<>();
+	}
+
+	@Override
+	public void saveScanProgress(TableSchema tableSchema, ScanCursor cursor) throws EmissionException {
+		/* progress is not tracked when writing to stdout */
+	}
+
+	@Override
+	public boolean hasRows(TableSchema tableSchema) throws EmissionException {
+		return false;
+	}
+
+	@Override
+	public CitusShardRouter fetchShardRouter(TableSchema tableSchema) throws EmissionException {
 		return null;
 	}
 
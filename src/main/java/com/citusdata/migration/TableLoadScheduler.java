@@ -0,0 +1,117 @@
+/**
+ *
+ */
+package com.citusdata.migration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+
+/*
+ * TableLoadScheduler runs the initial data load of many tables with a bounded
+ * number of tables loading at the same time. Tables are started largest first
+ * by size in bytes, then by item count, such that the table that takes the
+ * longest to load starts first. All loads share the same read and write
+ * budgets, which bound the aggregate load on DynamoDB and the database.
+ */
+public class TableLoadScheduler {
+
+	private static final Log LOG = LogFactory.getLog(TableLoadScheduler.class);
+
+	final ExecutorService tableExecutor;
+	final int maxScanRate;
+	final CapacityBudget readBudget;
+	final CapacityBudget writeBudget;
+
+	public TableLoadScheduler(int maxConcurrentTables, int maxScanRate, CapacityBudget readBudget,
+			CapacityBudget writeBudget) {
+		if (maxConcurrentTables < 1) {
+			throw new IllegalArgumentException("at least 1 table needs to be loaded at a time");
+		}
+
+		this.tableExecutor = Executors.newFixedThreadPool(maxConcurrentTables);
+		this.maxScanRate = maxScanRate;
+		this.readBudget = readBudget;
+		this.writeBudget = writeBudget;
+	}
+
+	/*
+	 * schedule starts loading the given tables in order of size and returns
+	 * the futures of the loads in the order of the given list.
+	 */
+	public List<Future<Long>> schedule(List<DynamoDBTableReplicator> replicators) {
+		final List<TableLoad> tableLoads = new ArrayList<>(replicators.size());
+
+		for (DynamoDBTableReplicator replicator : replicators) {
+			tableLoads.add(new TableLoad(replicator));
+		}
+
+		List<TableLoad> largestFirst = new ArrayList<>(tableLoads);
+		Collections.sort(largestFirst, LARGEST_FIRST);
+
+		for (final TableLoad tableLoad : largestFirst) {
+			final DynamoDBTableReplicator replicator = tableLoad.replicator;
+
+			replicator.setCapacityBudgets(readBudget, writeBudget);
+
+			tableLoad.result = tableExecutor.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					LOG.info(String.format("Replicating data for table %s (%d bytes, %d items)",
+							replicator.dynamoTableName, tableLoad.sizeBytes, tableLoad.itemCount));
+
+					return replicator.replicateData(maxScanRate);
+				}
+			});
+		}
+
+		List<Future<Long>> results = new ArrayList<>(tableLoads.size());
+
+		for (TableLoad tableLoad : tableLoads) {
+			results.add(tableLoad.result);
+		}
+
+		return results;
+	}
+
+	public void shutdown() {
+		tableExecutor.shutdown();
+	}
+
+	static class TableLoad {
+		final DynamoDBTableReplicator replicator;
+		final long sizeBytes;
+		final long itemCount;
+		Future<Long> result;
+
+		TableLoad(DynamoDBTableReplicator replicator) {
+			TableDescription tableDescription = replicator.describeSourceTable();
+
+			this.replicator = replicator;
+			this.sizeBytes = tableDescription.getTableSizeBytes() != null ? tableDescription.getTableSizeBytes() : 0;
+			this.itemCount = tableDescription.getItemCount() != null ? tableDescription.getItemCount() : 0;
+		}
+	}
+
+	static final Comparator<TableLoad> LARGEST_FIRST = new Comparator<TableLoad>() {
+		@Override
+		public int compare(TableLoad left, TableLoad right) {
+			if (left.sizeBytes != right.sizeBytes) {
+				return Long.compare(right.sizeBytes, left.sizeBytes);
+			}
+
+			return Long.compare(right.itemCount, left.itemCount);
+		}
+	};
+
+}
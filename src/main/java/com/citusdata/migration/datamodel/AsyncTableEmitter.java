@@ -0,0 +1,17 @@
+package com.citusdata.migration.datamodel;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * AsyncTableEmitter is a TableEmitter that can apply changes without blocking
+ * the caller. The returned futures complete when the changes are applied, or
+ * complete exceptionally with an EmissionException if they fail. Changes to
+ * the same key are applied in the order in which they are submitted.
+ */
+public interface AsyncTableEmitter extends TableEmitter {
+
+	CompletableFuture<Long> upsertAsync(TableRow tableRow);
+	CompletableFuture<Long> deleteAsync(PrimaryKeyValue primaryKeyValue);
+	CompletableFuture<Long> applyBatchAsync(List<TableModification> modifications);
+}
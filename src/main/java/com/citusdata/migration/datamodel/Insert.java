@@ -15,4 +15,13 @@ public class Insert implements TableModification {
 		this.newValue = newValue;
 	}
 
+	public TableRow getNewRow() {
+		return newValue;
+	}
+
+	@Override
+	public PrimaryKeyValue getPrimaryKeyValue() {
+		return newValue.getPrimaryKeyValue();
+	}
+
 }
@@ -0,0 +1,41 @@
+/**
+ * 
+ */
+package com.citusdata.migration.datamodel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * ModificationCoalescer removes modifications that are overwritten by a later
+ * modification to the same key in the same list. Since an upsert overwrites
+ * the whole row and a delete removes it, only the last modification to each
+ * key determines the outcome.
+ *
+ * The remaining modifications are kept in the order of the last modification
+ * to each key, such that if the last modification to key A came before the
+ * last modification to key B, A is still modified before B.
+ */
+public class ModificationCoalescer {
+
+	public static List<TableModification> coalesce(List<TableModification> modifications) {
+		List<TableModification> lastModifications = new ArrayList<>(modifications.size());
+		Set<PrimaryKeyValue> seenKeys = new HashSet<>();
+
+		for (int i = modifications.size() - 1; i >= 0; i--) {
+			TableModification modification = modifications.get(i);
+
+			if (seenKeys.add(modification.getPrimaryKeyValue())) {
+				lastModifications.add(modification);
+			}
+		}
+
+		Collections.reverse(lastModifications);
+
+		return lastModifications;
+	}
+
+}
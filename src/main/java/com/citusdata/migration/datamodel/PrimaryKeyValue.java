@@ -3,22 +3,23 @@
  */
 package com.citusdata.migration.datamodel;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * @author marco
  *
+ * Values are stored in the order of the primary key columns.
  */
-public class PrimaryKeyValue {
+public class PrimaryKeyValue implements Comparable<PrimaryKeyValue> {
 
 	public final TableSchema tableSchema;
 
-	final Map<String, TableColumnValue> values;
+	final TableColumnValue[] values;
 
 	public PrimaryKeyValue(TableSchema tableSchema) {
 		this.tableSchema = tableSchema;
-		this.values = new HashMap<String,TableColumnValue>();
+		this.values = new TableColumnValue[tableSchema.getPrimaryKeyColumns().size()];
 	}
 
 	public void setValue(String key, Object value) {
@@ -32,36 +33,127 @@ public class PrimaryKeyValue {
 	}
 
 	void setValue(String key, TableColumnValue value) {
-		values.put(key, value);
+		values[tableSchema.primaryKeyIndex(key)] = value;
+	}
+
+	void setValue(int keyIndex, TableColumnValue value) {
+		values[keyIndex] = value;
 	}
 	
 	public TableColumnValue getValue(String key) {
-		return values.get(key);
+		int keyIndex = tableSchema.primaryKeyIndex(key);
+
+		return keyIndex >= 0 ? values[keyIndex] : null;
+	}
+
+	public TableColumnValue getValue(int keyIndex) {
+		return values[keyIndex];
+	}
+
+	/*
+	 * toRow returns a row that only contains the values of the primary key.
+	 */
+	public TableRow toRow() {
+		TableRow tableRow = tableSchema.createRow();
+		List<TableColumn> primaryKeyColumns = tableSchema.getPrimaryKeyColumns();
+
+		for (int keyIndex = 0; keyIndex < values.length; keyIndex++) {
+			tableRow.setValue(primaryKeyColumns.get(keyIndex), values[keyIndex]);
+		}
+
+		return tableRow;
+	}
+
+	/*
+	 * toValues returns the values of the primary key columns as a row
+	 * constructor, such that multiple keys can be matched using IN.
+	 */
+	public String toValues() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("(");
+
+		List<TableColumn> primaryKeyColumns = tableSchema.getPrimaryKeyColumns();
+
+		for (int keyIndex = 0; keyIndex < values.length; keyIndex++) {
+			if (keyIndex > 0) {
+				sb.append(", ");
+			}
+
+			sb.append(values[keyIndex].toQuotedString());
+			sb.append("::");
+			sb.append(primaryKeyColumns.get(keyIndex).type);
+		}
+
+		sb.append(")");
+
+		return sb.toString();
+	}
+
+	/*
+	 * Keys are equal if they belong to the same table and have the same
+	 * values, regardless of the version of the schema they were built
+	 * against.
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof PrimaryKeyValue)) {
+			return false;
+		}
+
+		PrimaryKeyValue otherKey = (PrimaryKeyValue) other;
+
+		return tableSchema.isSameTable(otherKey.tableSchema) && Arrays.equals(values, otherKey.values);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(values);
+	}
+
+	/*
+	 * compareTo orders keys by table and then by the text of their values.
+	 * The order differs from the order of the values in the database, but it
+	 * is the same for every writer, such that writers that lock the same rows
+	 * in this order cannot deadlock each other.
+	 */
+	@Override
+	public int compareTo(PrimaryKeyValue other) {
+		int result = tableSchema.getQualifiedTableName().compareTo(other.tableSchema.getQualifiedTableName());
+
+		for (int keyIndex = 0; result == 0 && keyIndex < values.length && keyIndex < other.values.length; keyIndex++) {
+			TableColumnValue value = values[keyIndex];
+			TableColumnValue otherValue = other.values[keyIndex];
+
+			if (value == null || otherValue == null) {
+				result = value == null ? (otherValue == null ? 0 : -1) : 1;
+			} else {
+				result = value.toString().compareTo(otherValue.toString());
+			}
+		}
+
+		return result;
 	}
 
 	public String toDelete() {
 		StringBuilder sb = new StringBuilder();
 
-		sb.append("DELETE FROM ");
-		sb.append(tableSchema.getQualifiedTableName());
-		sb.append(" WHERE ");
+		sb.append(tableSchema.getDeletePrefix());
 
-		boolean skipSeparator = true;
+		List<TableColumn> primaryKeyColumns = tableSchema.getPrimaryKeyColumns();
 
-		for (String columnName : tableSchema.getPrimaryKeyColumnNames()) {
-			TableColumn column = tableSchema.getColumn(columnName);
+		for (int keyIndex = 0; keyIndex < values.length; keyIndex++) {
+			TableColumn column = primaryKeyColumns.get(keyIndex);
 
-			if (!skipSeparator) {
+			if (keyIndex > 0) {
 				sb.append(" AND ");
 			}
 
-			sb.append(TableSchema.quoteIdentifier(columnName));
+			sb.append(column.quotedName);
 			sb.append(" = ");
-			sb.append(getValue(columnName).toQuotedString());
+			sb.append(values[keyIndex].toQuotedString());
 			sb.append("::");
 			sb.append(column.type);
-
-			skipSeparator = false;
 		}
 
 		return sb.toString();
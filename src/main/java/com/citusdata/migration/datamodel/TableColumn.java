@@ -9,17 +9,29 @@ public class TableColumn {
 	
 	public final String name;
 	public final TableColumnType type;
+
+	/* name of the column as it appears in SQL */
+	public final String quotedName;
+
+	/* position of the column in the schema, which is the same in every version */
+	public final int ordinal;
 	public boolean notNull;
 
-	public TableColumn(TableSchema tableSchema, String name, TableColumnType type) {
+	public TableColumn(TableSchema tableSchema, String name, TableColumnType type, int ordinal) {
 		this.tableSchema = tableSchema;
 		this.name = name;
 		this.type = type;
+		this.quotedName = TableSchema.quoteIdentifier(name);
+		this.ordinal = ordinal;
 		this.notNull = false;
 	}
 	
-	public Object getQuotedIdentifier() {
-		return TableSchema.quoteIdentifier(name);
+	public TableSchema getTableSchema() {
+		return tableSchema;
+	}
+
+	public String getQuotedIdentifier() {
+		return quotedName;
 	}
 	
 	public String toAlterTableAddColumn() {
@@ -36,7 +48,7 @@ public class TableColumn {
 	public String toDDL() {
 		StringBuilder sb = new StringBuilder();
 		
-		sb.append(TableSchema.quoteIdentifier(name));
+		sb.append(quotedName);
 		sb.append(" ");
 		sb.append(type);
 		
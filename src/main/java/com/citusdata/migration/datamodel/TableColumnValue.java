@@ -3,12 +3,26 @@
  */
 package com.citusdata.migration.datamodel;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
 /**
  * @author marco
  *
  */
 public class TableColumnValue {
 
+	/* values are immutable, so every boolean column shares these */
+	public static final TableColumnValue TRUE = new TableColumnValue(TableColumnType.bool, Boolean.TRUE);
+	public static final TableColumnValue FALSE = new TableColumnValue(TableColumnType.bool, Boolean.FALSE);
+
 	public final TableColumnType type;
 	public final Object datum;
 	
@@ -17,39 +31,87 @@ public class TableColumnValue {
 		this.datum = value;
 	}
 
+	public static TableColumnValue of(boolean value) {
+		return value ? TRUE : FALSE;
+	}
+
+	/*
+	 * estimateSize returns the approximate number of bytes the value takes up
+	 * when sent to the database.
+	 */
+	public long estimateSize() {
+		switch(type) {
+		case bytea:
+			return bytesOf(datum).remaining();
+
+		case bool:
+			return 1;
+
+		case text:
+		case jsonb:
+		case numeric:
+		default:
+			return datum.toString().length();
+		}
+	}
+
 	public String toCopyValue() {
+		StringWriter writer = new StringWriter();
+
+		try {
+			writeCopyValue(writer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		return writer.toString();
+	}
+
+	/*
+	 * writeCopyValue writes the value in COPY text format to the given writer
+	 * without building an intermediate string for the escaped value.
+	 */
+	public void writeCopyValue(Writer writer) throws IOException {
+		if (type == TableColumnType.bytea) {
+			/* the backslash of the \x prefix is itself escaped in COPY text */
+			writer.write("\\\\x");
+			writeHex(bytesOf(datum), writer);
+			return;
+		}
+
 		String string = toString();
-		StringBuilder sb = new StringBuilder();
-		
+		int start = 0;
+
 		for(int i = 0; i < string.length(); i++) {
-			char ch = string.charAt(i);
-			
-			switch(ch) {
-			case '\b':
-				sb.append("\\b");
-				break;
-			case '\f':
-				sb.append("\\f");
-				break;
-			case '\n':
-				sb.append("\\n");
-				break;
-			case '\r':
-				sb.append("\\r");
-				break;
-			case '\t':
-				sb.append("\\t");
-				break;
-			case '\\':
-				sb.append("\\\\");
-				break;
-			default:
-				sb.append(ch);
-				break;
+			String escaped = copyEscape(string.charAt(i));
+
+			if (escaped != null) {
+				writer.write(string, start, i - start);
+				writer.write(escaped);
+				start = i + 1;
 			}
 		}
 
-		return sb.toString();
+		writer.write(string, start, string.length() - start);
+	}
+
+	private static String copyEscape(char ch) {
+		switch(ch) {
+		case '\b':
+			return "\\b";
+		case '\f':
+			return "\\f";
+		case '\n':
+			return "\\n";
+		case '\r':
+			return "\\r";
+		case '\t':
+			return "\\t";
+		case '\\':
+			return "\\\\";
+		default:
+			return null;
+		}
 	}
 
 	public String toQuotedString() {
@@ -114,7 +176,7 @@ public class TableColumnValue {
 	public String toString() {
 		switch(type) {
 		case bytea:
-			return "\\x" + byteArrayToHex((byte[]) datum);
+			return "\\x" + byteBufferToHex(bytesOf(datum));
 
 		case bool:
 		case text:
@@ -125,6 +187,38 @@ public class TableColumnValue {
 		}
 	}
 
+	/*
+	 * Values are equal if they have the same type and datum, where bytea
+	 * values are compared by content.
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof TableColumnValue)) {
+			return false;
+		}
+
+		TableColumnValue otherValue = (TableColumnValue) other;
+
+		if (type != otherValue.type) {
+			return false;
+		}
+
+		if (type == TableColumnType.bytea) {
+			return bytesOf(datum).equals(bytesOf(otherValue.datum));
+		}
+
+		return Objects.equals(datum, otherValue.datum);
+	}
+
+	@Override
+	public int hashCode() {
+		if (type == TableColumnType.bytea) {
+			return bytesOf(datum).hashCode();
+		}
+
+		return Objects.hashCode(datum);
+	}
+
 	private final static char[] hexArray = "0123456789ABCDEF".toCharArray();
 	public static String byteArrayToHex(byte[] bytes) {
 		char[] hexChars = new char[bytes.length * 2];
@@ -138,4 +232,206 @@ public class TableColumnValue {
 		return new String(hexChars);
 	}
 
+	public static String byteBufferToHex(ByteBuffer bytes) {
+		char[] hexChars = new char[bytes.remaining() * 2];
+		int numChars = 0;
+
+		for ( int j = bytes.position(); j < bytes.limit(); j++ ) {
+			int v = bytes.get(j) & 0xFF;
+			hexChars[numChars++] = hexArray[v >>> 4];
+			hexChars[numChars++] = hexArray[v & 0x0F];
+		}
+
+		return new String(hexChars);
+	}
+
+	private static void writeHex(ByteBuffer bytes, Writer writer) throws IOException {
+		char[] hexChars = new char[Math.min(bytes.remaining(), 512) * 2];
+		int numChars = 0;
+
+		for ( int j = bytes.position(); j < bytes.limit(); j++ ) {
+			int v = bytes.get(j) & 0xFF;
+			hexChars[numChars++] = hexArray[v >>> 4];
+			hexChars[numChars++] = hexArray[v & 0x0F];
+
+			if (numChars == hexChars.length) {
+				writer.write(hexChars, 0, numChars);
+				numChars = 0;
+			}
+		}
+
+		writer.write(hexChars, 0, numChars);
+	}
+
+	/*
+	 * bytesOf returns a bytea datum, which is either a byte array or a
+	 * ByteBuffer taken directly from a DynamoDB binary attribute, as a
+	 * ByteBuffer. Only absolute reads are used, so the position of a shared
+	 * buffer is never changed.
+	 */
+	static ByteBuffer bytesOf(Object datum) {
+		if (datum instanceof ByteBuffer) {
+			return (ByteBuffer) datum;
+		}
+
+		return ByteBuffer.wrap((byte[]) datum);
+	}
+
+	/*
+	 * toByteArray returns the bytes of a bytea value, copying them only if the
+	 * value is not already backed by an array of exactly those bytes.
+	 */
+	public byte[] toByteArray() {
+		if (datum instanceof byte[]) {
+			return (byte[]) datum;
+		}
+
+		ByteBuffer buffer = bytesOf(datum);
+
+		if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 &&
+				buffer.remaining() == buffer.array().length) {
+			return buffer.array();
+		}
+
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+
+		return bytes;
+	}
+
+	/*
+	 * writeBinaryCopyValue writes the length-prefixed value in COPY binary
+	 * format, using the send format of the given column type.
+	 */
+	public void writeBinaryCopyValue(TableColumnType columnType, DataOutputStream out) throws IOException {
+		switch(columnType) {
+		case bytea:
+			if (type != TableColumnType.bytea) {
+				writeBinaryBytes(toString().getBytes(StandardCharsets.UTF_8), out);
+				break;
+			}
+
+			ByteBuffer bytes = bytesOf(datum);
+			out.writeInt(bytes.remaining());
+
+			if (bytes.hasArray()) {
+				out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+			} else {
+				byte[] chunk = new byte[Math.min(bytes.remaining(), 8192)];
+				ByteBuffer source = bytes.duplicate();
+
+				while (source.hasRemaining()) {
+					int chunkSize = Math.min(chunk.length, source.remaining());
+					source.get(chunk, 0, chunkSize);
+					out.write(chunk, 0, chunkSize);
+				}
+			}
+			break;
+
+		case bool:
+			boolean value = datum instanceof Boolean ? (Boolean) datum : Boolean.parseBoolean(datum.toString());
+			out.writeInt(1);
+			out.writeByte(value ? 1 : 0);
+			break;
+
+		case numeric:
+			writeBinaryNumeric(new BigDecimal(datum.toString()), out);
+			break;
+
+		case jsonb:
+			byte[] json = toString().getBytes(StandardCharsets.UTF_8);
+
+			/* jsonb send format is a version number followed by the text */
+			out.writeInt(json.length + 1);
+			out.writeByte(JSONB_VERSION);
+			out.write(json);
+			break;
+
+		case text:
+		default:
+			writeBinaryBytes(toString().getBytes(StandardCharsets.UTF_8), out);
+			break;
+		}
+	}
+
+	private static final int JSONB_VERSION = 1;
+	private static final int NUMERIC_POS = 0x0000;
+	private static final int NUMERIC_NEG = 0x4000;
+	private static final int NUMERIC_DIGIT_LENGTH = 4;
+
+	private static void writeBinaryBytes(byte[] bytes, DataOutputStream out) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/*
+	 * writeBinaryNumeric writes a numeric in the send format of PostgreSQL,
+	 * which represents the number as base-10000 digits with the weight of the
+	 * first digit, a sign and the display scale.
+	 */
+	static void writeBinaryNumeric(BigDecimal number, DataOutputStream out) throws IOException {
+		int sign = number.signum() < 0 ? NUMERIC_NEG : NUMERIC_POS;
+		int displayScale = Math.max(number.scale(), 0);
+		String plain = number.abs().toPlainString();
+		int pointIndex = plain.indexOf('.');
+		String integerPart = pointIndex < 0 ? plain : plain.substring(0, pointIndex);
+		String fractionPart = pointIndex < 0 ? "" : plain.substring(pointIndex + 1);
+
+		int integerStart = 0;
+		while (integerStart < integerPart.length() && integerPart.charAt(integerStart) == '0') {
+			integerStart++;
+		}
+		integerPart = integerPart.substring(integerStart);
+
+		int integerDigitCount = (integerPart.length() + NUMERIC_DIGIT_LENGTH - 1) / NUMERIC_DIGIT_LENGTH;
+		int fractionDigitCount = (fractionPart.length() + NUMERIC_DIGIT_LENGTH - 1) / NUMERIC_DIGIT_LENGTH;
+		int[] digits = new int[integerDigitCount + fractionDigitCount];
+
+		/* integer digits are aligned to the decimal point from the right */
+		int integerPadding = integerDigitCount * NUMERIC_DIGIT_LENGTH - integerPart.length();
+		for (int i = 0; i < integerPart.length(); i++) {
+			int position = integerPadding + i;
+			digits[position / NUMERIC_DIGIT_LENGTH] =
+					digits[position / NUMERIC_DIGIT_LENGTH] * 10 + (integerPart.charAt(i) - '0');
+		}
+
+		/* fraction digits are aligned to the decimal point from the left */
+		for (int i = 0; i < fractionDigitCount * NUMERIC_DIGIT_LENGTH; i++) {
+			int digit = i < fractionPart.length() ? fractionPart.charAt(i) - '0' : 0;
+			int index = integerDigitCount + i / NUMERIC_DIGIT_LENGTH;
+			digits[index] = digits[index] * 10 + digit;
+		}
+
+		int weight = integerDigitCount - 1;
+		int first = 0;
+		int last = digits.length - 1;
+
+		while (first <= last && digits[first] == 0) {
+			first++;
+			weight--;
+		}
+
+		while (last >= first && digits[last] == 0) {
+			last--;
+		}
+
+		int numDigits = last - first + 1;
+
+		if (numDigits == 0) {
+			/* zero */
+			weight = 0;
+			sign = NUMERIC_POS;
+		}
+
+		out.writeInt(8 + 2 * numDigits);
+		out.writeShort(numDigits);
+		out.writeShort(weight);
+		out.writeShort(sign);
+		out.writeShort(displayScale);
+
+		for (int i = first; i <= last; i++) {
+			out.writeShort(digits[i]);
+		}
+	}
+
 }
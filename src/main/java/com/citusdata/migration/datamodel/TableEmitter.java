@@ -1,18 +1,27 @@
 package com.citusdata.migration.datamodel;
 
 import java.io.Reader;
-import java.util.Map;
+import java.util.List;
 
+import com.citusdata.migration.CitusShardRouter;
 import com.citusdata.migration.EmissionException;
+import com.citusdata.migration.ScanCursor;
 
 public interface TableEmitter {
 
 	TableSchema fetchSchema(String tableName, String schemaName) throws EmissionException;
 	void createTable(TableSchema tableSchema) throws EmissionException;
 	void createColumn(TableColumn column) throws EmissionException;
+	void createColumns(List<TableColumn> columns) throws EmissionException;
 	long copyFromReader(TableSchema tableSchema, Reader reader) throws EmissionException;
+	long copyFromBatch(TableSchema tableSchema, TableRowBatch batch) throws EmissionException;
+	long upsertFromBatch(TableSchema tableSchema, TableRowBatch batch) throws EmissionException;
 	void upsert(TableRow tableRow) throws EmissionException;
 	void delete(PrimaryKeyValue primaryKeyValue) throws EmissionException;
+	void applyBatch(List<TableModification> modifications) throws EmissionException;
 	void close() throws EmissionException;
-	Map<String, Object> getMaxPrimaryKey(TableSchema tableSchema) throws EmissionException;
+	List<ScanCursor> loadScanProgress(TableSchema tableSchema) throws EmissionException;
+	void saveScanProgress(TableSchema tableSchema, ScanCursor cursor) throws EmissionException;
+	boolean hasRows(TableSchema tableSchema) throws EmissionException;
+	CitusShardRouter fetchShardRouter(TableSchema tableSchema) throws EmissionException;
 }
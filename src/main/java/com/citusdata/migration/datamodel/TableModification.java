@@ -8,4 +8,6 @@ package com.citusdata.migration.datamodel;
  *
  */
 public interface TableModification {
+
+	PrimaryKeyValue getPrimaryKeyValue();
 }
@@ -0,0 +1,121 @@
+/**
+ * 
+ */
+package com.citusdata.migration.datamodel;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * TableModificationBatch turns a list of modifications into as few SQL
+ * commands as possible. Consecutive modifications of the same kind on the
+ * same table are combined into a single multi-row INSERT, a multi-row upsert,
+ * or a DELETE of multiple keys. The order of modifications to the same key is
+ * preserved, since a run only combines modifications of a single kind and an
+ * upsert run keeps only the last row for each key.
+ */
+public class TableModificationBatch {
+
+	enum Kind {
+		insert,
+		upsert,
+		delete
+	}
+
+	final List<String> commands;
+	final int maxRowsPerCommand;
+
+	Kind runKind;
+	TableSchema runSchema;
+	List<TableRow> insertRows;
+	Map<PrimaryKeyValue,TableRow> upsertRows;
+	Set<PrimaryKeyValue> deleteKeys;
+
+	TableModificationBatch(int maxRowsPerCommand) {
+		this.commands = new ArrayList<>();
+		this.maxRowsPerCommand = maxRowsPerCommand;
+		this.insertRows = new ArrayList<>();
+		this.upsertRows = new LinkedHashMap<>();
+		this.deleteKeys = new LinkedHashSet<>();
+	}
+
+	/*
+	 * toCommands returns the SQL commands that apply the given modifications
+	 * in order, with at most maxRowsPerCommand rows or keys per command.
+	 */
+	public static List<String> toCommands(List<TableModification> modifications, int maxRowsPerCommand) {
+		TableModificationBatch batch = new TableModificationBatch(maxRowsPerCommand);
+
+		for (TableModification modification : modifications) {
+			batch.add(modification);
+		}
+
+		batch.flush();
+
+		return batch.commands;
+	}
+
+	void add(TableModification modification) {
+		if (modification instanceof Upsert) {
+			TableRow newRow = ((Upsert) modification).getNewRow();
+
+			startRun(Kind.upsert, newRow.tableSchema);
+			upsertRows.put(newRow.getPrimaryKeyValue(), newRow);
+		} else if (modification instanceof Insert) {
+			TableRow newRow = ((Insert) modification).getNewRow();
+
+			startRun(Kind.insert, newRow.tableSchema);
+			insertRows.add(newRow);
+		} else if (modification instanceof Delete) {
+			PrimaryKeyValue keyValue = ((Delete) modification).getKeyValue();
+
+			startRun(Kind.delete, keyValue.tableSchema);
+			deleteKeys.add(keyValue);
+		} else {
+			throw new IllegalArgumentException("unsupported modification: " + modification);
+		}
+
+		if (runSize() >= maxRowsPerCommand) {
+			flush();
+		}
+	}
+
+	void startRun(Kind kind, TableSchema tableSchema) {
+		if (kind != runKind || tableSchema != runSchema) {
+			flush();
+		}
+
+		runKind = kind;
+		runSchema = tableSchema;
+	}
+
+	int runSize() {
+		return insertRows.size() + upsertRows.size() + deleteKeys.size();
+	}
+
+	void flush() {
+		if (runSize() == 0) {
+			return;
+		}
+
+		switch (runKind) {
+		case insert:
+			commands.add(runSchema.toInsert(insertRows));
+			insertRows = new ArrayList<>();
+			break;
+		case upsert:
+			commands.add(runSchema.toUpsert(new ArrayList<>(upsertRows.values())));
+			upsertRows = new LinkedHashMap<>();
+			break;
+		case delete:
+			commands.add(runSchema.toDeleteKeys(deleteKeys));
+			deleteKeys = new LinkedHashSet<>();
+			break;
+		}
+	}
+
+}
@@ -3,70 +3,58 @@
  */
 package com.citusdata.migration.datamodel;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.List;
 
 /**
  * @author marco
  *
+ * Values are stored by column ordinal. Since columns keep their ordinal in
+ * newer versions of the schema, a row can be written with the columns of a
+ * newer version, in which case columns beyond the end of the row are NULL.
  */
 public class TableRow {
 
 	public final TableSchema tableSchema;
 
-	private final Map<String, TableColumnValue> values;
+	private final TableColumnValue[] values;
 
 	TableRow(TableSchema tableSchema) {
 		this.tableSchema = tableSchema;
-		this.values = new HashMap<>();
+		this.values = new TableColumnValue[tableSchema.columnCount()];
 	}
 
 	public void setValue(String key, Object value) {
 		TableColumn column = tableSchema.getColumn(key);
-		setValue(key, new TableColumnValue(column.type, value));
+		setValue(column, new TableColumnValue(column.type, value));
 	}
 
+	/*
+	 * setValue sets the value of a column by name. Values of columns that are
+	 * not in the schema of the row are ignored, since they are never written.
+	 */
 	public void setValue(String key, TableColumnValue value) {
-		values.put(key, value);
+		TableColumn column = tableSchema.getColumn(key);
+
+		if (column != null) {
+			values[column.ordinal] = value;
+		}
+	}
+
+	public void setValue(TableColumn column, TableColumnValue value) {
+		values[column.ordinal] = value;
 	}
 	
 	public String toUpsert() {
 		StringBuilder sb = new StringBuilder();
 
-		sb.append(toInsert());
-		sb.append(" ON CONFLICT (");
-
-		boolean skipSeparator = true;
-
-		for (String columnName : tableSchema.getPrimaryKeyColumnNames()) {
-			if (!skipSeparator) {
-				sb.append(", ");
-			}
-
-			sb.append(TableSchema.quoteIdentifier(columnName));
-
-			skipSeparator = false;
-		}
-
-		sb.append(") DO UPDATE SET ");
-
-		skipSeparator = true;
-
-		for (String columnName : tableSchema.getColumnNames()) {
-			if (tableSchema.isInPrimaryKey(columnName)) {
-				continue;
-			}
-
-			if (!skipSeparator) {
-				sb.append(", ");
-			}
-
-			sb.append(TableSchema.quoteIdentifier(columnName));
-			sb.append(" = EXCLUDED.");
-			sb.append(TableSchema.quoteIdentifier(columnName));
-
-			skipSeparator = false;
-		}
+		sb.append(tableSchema.getInsertPrefix());
+		sb.append(toValues());
+		sb.append(tableSchema.toOnConflict(true));
 
 		return sb.toString();
 	}
@@ -74,23 +62,7 @@ public class TableRow {
 	public String toInsert() {
 		StringBuilder sb = new StringBuilder();
 
-		sb.append("INSERT INTO ");
-		sb.append(tableSchema.getQualifiedTableName());
-		sb.append(" (");
-
-		boolean skipSeparator = true;
-
-		for (String columnName : tableSchema.getColumnNames()) {
-			if (!skipSeparator) {
-				sb.append(", ");
-			}
-
-			sb.append(TableSchema.quoteIdentifier(columnName));
-
-			skipSeparator = false;
-		}
-
-		sb.append(") VALUES ");
+		sb.append(tableSchema.getInsertPrefix());
 		sb.append(toValues());
 
 		return sb.toString();
@@ -103,12 +75,14 @@ public class TableRow {
 
 		boolean skipSeparator = true;
 
-		for (TableColumn column : tableSchema.getColumns()) {
+		for (int ordinal = 0; ordinal < values.length; ordinal++) {
+			TableColumn column = tableSchema.getColumn(ordinal);
+
 			if (!skipSeparator) {
 				sb.append(", ");
 			}
 
-			TableColumnValue value = values.get(column.name);
+			TableColumnValue value = values[ordinal];
 
 			if (value != null) {
 				sb.append(value.toQuotedString());
@@ -127,36 +101,120 @@ public class TableRow {
 	}
 
 	public String toCopyRow() {
-		StringBuilder sb = new StringBuilder();
+		StringWriter writer = new StringWriter();
 
-		boolean skipSeparator = true;
+		try {
+			writeCopyRow(writer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 
-		for (String columnName : tableSchema.getColumnNames()) {
-			if (!skipSeparator) {
-				sb.append('\t');
+		return writer.toString();
+	}
+
+	public void writeCopyRow(Writer writer) throws IOException {
+		writeCopyRow(writer, tableSchema);
+	}
+
+	/*
+	 * writeCopyRow writes the row in COPY text format with the columns of the
+	 * given version of the schema, which may be newer than the version the
+	 * row was built against, in which case the new columns are NULL.
+	 */
+	public void writeCopyRow(Writer writer, TableSchema copySchema) throws IOException {
+		int columnCount = copySchema.columnCount();
+
+		for (int ordinal = 0; ordinal < columnCount; ordinal++) {
+			if (ordinal > 0) {
+				writer.write('\t');
 			}
 
-			TableColumnValue value = values.get(columnName);
+			TableColumnValue value = getValue(ordinal);
 
 			if (value != null) {
-				String escapedString = value.toCopyValue();
-				sb.append(escapedString);
+				value.writeCopyValue(writer);
 			} else {
-				sb.append("\\N");
+				writer.write("\\N");
 			}
-			
-			skipSeparator = false;
 		}
+	}
 
-		return sb.toString();
+	/*
+	 * writeBinaryCopyRow writes the row as a tuple in COPY binary format, using
+	 * the send format of the column types.
+	 */
+	public void writeBinaryCopyRow(DataOutputStream out) throws IOException {
+		writeBinaryCopyRow(out, tableSchema);
+	}
+
+	public void writeBinaryCopyRow(DataOutputStream out, TableSchema copySchema) throws IOException {
+		int columnCount = copySchema.columnCount();
+
+		out.writeShort(columnCount);
+
+		for (int ordinal = 0; ordinal < columnCount; ordinal++) {
+			TableColumn column = copySchema.getColumn(ordinal);
+			TableColumnValue value = getValue(ordinal);
+
+			if (value != null) {
+				value.writeBinaryCopyValue(column.type, out);
+			} else {
+				out.writeInt(-1);
+			}
+		}
+	}
+
+	/*
+	 * estimateSize returns the approximate number of bytes the row takes up
+	 * when sent to the database.
+	 */
+	public long estimateSize() {
+		long size = 0;
+
+		for (TableColumnValue value : values) {
+			if (value != null) {
+				size += value.estimateSize() + 1;
+			}
+		}
+
+		return size;
+	}
+
+	/*
+	 * getPrimaryKeyValue returns the values of the primary key columns of the
+	 * row.
+	 */
+	public PrimaryKeyValue getPrimaryKeyValue() {
+		PrimaryKeyValue primaryKeyValue = new PrimaryKeyValue(tableSchema);
+		List<TableColumn> primaryKeyColumns = tableSchema.getPrimaryKeyColumns();
+
+		for (int keyIndex = 0; keyIndex < primaryKeyColumns.size(); keyIndex++) {
+			primaryKeyValue.setValue(keyIndex, values[primaryKeyColumns.get(keyIndex).ordinal]);
+		}
+
+		return primaryKeyValue;
 	}
 
 	public TableColumnValue getValue(String name) {
-		return values.get(name);
+		TableColumn column = tableSchema.getColumn(name);
+
+		return column != null ? values[column.ordinal] : null;
+	}
+
+	/*
+	 * getValue returns the value of a column of any version of the schema of
+	 * the row, or null if the row has no value for it.
+	 */
+	public TableColumnValue getValue(TableColumn column) {
+		return getValue(column.ordinal);
+	}
+
+	TableColumnValue getValue(int ordinal) {
+		return ordinal < values.length ? values[ordinal] : null;
 	}
 
 	public boolean hasValue(String columnName) {
-		return values.containsKey(columnName);
+		return getValue(columnName) != null;
 	}
 
 }
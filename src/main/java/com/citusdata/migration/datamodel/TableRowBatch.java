@@ -3,8 +3,13 @@
  */
 package com.citusdata.migration.datamodel;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -15,30 +20,97 @@ import java.util.List;
 public class TableRowBatch {
 
 	final List<TableRow> tableRows;
+	long estimatedSize;
 	
 	public TableRowBatch() {
 		this.tableRows = new ArrayList<>();
+		this.estimatedSize = 0;
 	}
 	
 	public void addRow(TableRow tableRow) {
 		this.tableRows.add(tableRow);
+		this.estimatedSize += tableRow.estimateSize();
+	}
+
+	public void addRows(TableRowBatch batch) {
+		this.tableRows.addAll(batch.tableRows);
+		this.estimatedSize += batch.estimatedSize;
+	}
+
+	/*
+	 * getEstimatedSize returns the approximate number of bytes the rows in the
+	 * batch take up when sent to the database.
+	 */
+	public long getEstimatedSize() {
+		return estimatedSize;
 	}
 	
 	public String toCopyInput() {
-		StringBuilder sb = new StringBuilder();
-		
+		StringWriter writer = new StringWriter();
+
+		try {
+			writeCopyInput(writer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		return writer.toString();
+	}
+
+	/*
+	 * writeCopyInput writes the rows in COPY text format to the given writer
+	 * one row at a time, such that the batch never needs to be materialised
+	 * as a single string.
+	 */
+	public void writeCopyInput(Writer writer) throws IOException {
+		for(TableRow tableRow : tableRows) {
+			tableRow.writeCopyRow(writer);
+			writer.write('\n');
+		}
+	}
+
+	/*
+	 * writeCopyInput writes the rows with the columns of the given version of
+	 * the schema, such that rows that were built against different versions
+	 * can be loaded by the same COPY.
+	 */
+	public void writeCopyInput(Writer writer, TableSchema copySchema) throws IOException {
 		for(TableRow tableRow : tableRows) {
-			sb.append(tableRow.toCopyRow());
-			sb.append('\n');
+			tableRow.writeCopyRow(writer, copySchema);
+			writer.write('\n');
 		}
-		
-		return sb.toString();
 	}
 	
+	/*
+	 * writeBinaryCopyInput writes the rows in COPY binary format with the
+	 * columns of the given version of the schema, including the file header
+	 * and trailer.
+	 */
+	public void writeBinaryCopyInput(DataOutputStream out, TableSchema copySchema) throws IOException {
+		out.write(BINARY_COPY_SIGNATURE);
+		/* flags and header extension length */
+		out.writeInt(0);
+		out.writeInt(0);
+
+		for(TableRow tableRow : tableRows) {
+			tableRow.writeBinaryCopyRow(out, copySchema);
+		}
+
+		out.writeShort(-1);
+	}
+
+	private static final byte[] BINARY_COPY_SIGNATURE = {
+		'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0
+	};
+
 	public Reader asCopyReader() {
 		return new StringReader(toCopyInput());
 	}
 
+	public Iterable<TableRow> getRows() {
+		return tableRows;
+	}
+
 	public long size() {
 		return tableRows.size();
 	}
@@ -3,29 +3,62 @@
  */
 package com.citusdata.migration.datamodel;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.zip.CRC32;
 
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 
 /**
  * @author marco
  *
+ * A TableSchema is built using addColumn, setPrimaryKey and related methods
+ * before it is shared between threads. Once shared, a schema is never
+ * modified: adding columns creates a new version of the schema using
+ * withColumns, and rows keep a reference to the version they were built
+ * against, such that threads can read schemas without locking.
  */
 public class TableSchema {
 
 	public String schemaName;
 	public String tableName;
 
+	/* column of the change table that marks deleted keys */
+	public static final String DELETED_COLUMN_NAME = "podyn_deleted";
+
+	/*
+	 * columns of sequenced tables that hold the stream sequence number of the
+	 * last change to a row and whether that change deleted the item
+	 */
+	public static final String SEQUENCE_COLUMN_NAME = "podyn_seq";
+	public static final String TOMBSTONE_COLUMN_NAME = "podyn_tombstone";
+
+	/* maximum length of an identifier in PostgreSQL, which truncates longer names */
+	public static final int MAX_IDENTIFIER_BYTES = 63;
+
 	private final Map<String, TableColumn> columns;
+	private final List<TableColumn> columnsByOrdinal;
 	private TableColumn distributionColumn;
 	private List<String> primaryKey;
+	private List<TableColumn> primaryKeyColumns;
 	private List<TableIndex> tableIndexes;
 
+	/*
+	 * incremented on every change and in every new version of the schema, such
+	 * that cached statements can be renewed
+	 */
+	private int version;
+
+	/* SQL fragments of this version, compiled on first use */
+	private StatementTemplates statementTemplates;
+
 	public TableSchema(String tableName) {
 		this(tableName, null);
 	}
@@ -34,8 +67,102 @@ public class TableSchema {
 		this.tableName = tableName;
 		this.schemaName = schemaName;
 		this.columns = new LinkedHashMap<>();
+		this.columnsByOrdinal = new ArrayList<>();
 		this.primaryKey = null;
+		this.primaryKeyColumns = new ArrayList<>();
 		this.tableIndexes = new ArrayList<>();
+		this.version = 0;
+	}
+
+	/*
+	 * TableSchema creates the next version of the given schema, with columns
+	 * that belong to the new version.
+	 */
+	private TableSchema(TableSchema previous) {
+		this(previous.tableName, previous.schemaName);
+
+		for (TableColumn previousColumn : previous.getColumns()) {
+			TableColumn column = new TableColumn(this, previousColumn.name, previousColumn.type,
+					previousColumn.ordinal);
+			column.notNull = previousColumn.notNull;
+
+			this.columns.put(column.name, column);
+			this.columnsByOrdinal.add(column);
+		}
+
+		if (previous.distributionColumn != null) {
+			this.distributionColumn = this.columns.get(previous.distributionColumn.name);
+		}
+
+		if (previous.primaryKey != null) {
+			setPrimaryKey(new ArrayList<>(previous.primaryKey));
+		}
+
+		this.tableIndexes.addAll(previous.tableIndexes);
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	/*
+	 * changed marks a change to a schema that is being built, which discards
+	 * any SQL that was compiled for it.
+	 */
+	private void changed() {
+		this.version++;
+		this.statementTemplates = null;
+	}
+
+	/*
+	 * getStatementTemplates returns the SQL fragments that are the same for
+	 * every row of this version of the schema, such that building a statement
+	 * for a row only requires encoding its values. Templates are immutable, so
+	 * threads that compile them concurrently for a shared schema get the same
+	 * result.
+	 */
+	private StatementTemplates getStatementTemplates() {
+		StatementTemplates templates = this.statementTemplates;
+
+		if (templates == null) {
+			templates = new StatementTemplates(this);
+			this.statementTemplates = templates;
+		}
+
+		return templates;
+	}
+
+	/*
+	 * withColumns returns a new version of the schema that has the given
+	 * columns added at the end, leaving this version unchanged.
+	 */
+	public TableSchema withColumns(Map<String,TableColumnType> newColumns) {
+		TableSchema nextVersion = new TableSchema(this);
+
+		for (Map.Entry<String,TableColumnType> newColumn : newColumns.entrySet()) {
+			nextVersion.addColumn(newColumn.getKey(), newColumn.getValue());
+		}
+
+		nextVersion.version = this.version + 1;
+
+		return nextVersion;
+	}
+
+	/*
+	 * isSameTable returns whether the given schema describes the same table,
+	 * possibly in a different version.
+	 */
+	public boolean isSameTable(TableSchema other) {
+		return tableName.equals(other.tableName) && Objects.equals(schemaName, other.schemaName);
+	}
+
+	/*
+	 * isSequenced returns whether the table keeps the sequence number of the
+	 * last change to each row, in which case upserts only overwrite rows with
+	 * a lower sequence number.
+	 */
+	public boolean isSequenced() {
+		return columns.containsKey(SEQUENCE_COLUMN_NAME);
 	}
 
 	public TableRow createRow() {
@@ -51,8 +178,10 @@ public class TableSchema {
 			throw new ColumnExistError("column \"%s\" already exists", columnName);
 		}
 
-		TableColumn column = new TableColumn(this, columnName, type);
+		TableColumn column = new TableColumn(this, columnName, type, columnsByOrdinal.size());
 		this.columns.put(columnName, column);
+		this.columnsByOrdinal.add(column);
+		changed();
 
 		return column;
 	}
@@ -70,6 +199,7 @@ public class TableSchema {
 		}
 
 		this.distributionColumn = columns.get(columnName);
+		changed();
 
 	}
 
@@ -80,13 +210,47 @@ public class TableSchema {
 			}
 		}
 
+		List<TableColumn> primaryKeyColumns = new ArrayList<>(columnNames.size());
+
+		for (String columnName : columnNames) {
+			primaryKeyColumns.add(columns.get(columnName));
+		}
+
 		this.primaryKey = columnNames;
+		this.primaryKeyColumns = primaryKeyColumns;
+		changed();
 	}
 
 	public void addIndex(String indexName, List<String> indexColumns) {
 		this.tableIndexes.add(new TableIndex(this.schemaName, this.tableName, indexName, indexColumns));
 	}
 
+	/*
+	 * toAddColumns returns a single ALTER TABLE command that adds all the
+	 * given columns of the schema, such that they are added atomically.
+	 */
+	public String toAddColumns(List<TableColumn> newColumns) {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("ALTER TABLE ");
+		sb.append(getQualifiedTableName());
+
+		boolean skipSeparator = true;
+
+		for (TableColumn column : newColumns) {
+			if (!skipSeparator) {
+				sb.append(",");
+			}
+
+			sb.append(" ADD COLUMN ");
+			sb.append(column.toDDL());
+
+			skipSeparator = false;
+		}
+
+		return sb.toString();
+	}
+
 	public static boolean requiresQuotes(String identifier) {
 		for (int i = 0; i < identifier.length(); i++) {
 			char ch = identifier.charAt(i);
@@ -112,6 +276,10 @@ public class TableSchema {
 	}
 
 	public String getQualifiedTableName() {
+		return getStatementTemplates().qualifiedTableName;
+	}
+
+	private String compileQualifiedTableName() {
 		StringBuilder sb = new StringBuilder();
 
 		if (schemaName != null) {
@@ -124,12 +292,28 @@ public class TableSchema {
 		return sb.toString();
 	}
 
+	/*
+	 * copyFromStdin returns a COPY command that lists the columns of this
+	 * version of the schema, such that columns that another thread added to
+	 * the table in the meantime are left empty.
+	 */
 	public String copyFromStdin() {
 		StringBuilder sb = new StringBuilder();
 
 		sb.append("COPY ");
 		sb.append(getQualifiedTableName());
-		sb.append(" FROM STDIN");
+		sb.append(" (");
+		sb.append(toColumnList());
+		sb.append(") FROM STDIN");
+
+		return sb.toString();
+	}
+
+	public String copyFromStdinBinary() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append(copyFromStdin());
+		sb.append(" WITH (FORMAT binary)");
 
 		return sb.toString();
 	}
@@ -228,28 +412,25 @@ public class TableSchema {
 
 		StringBuilder sb = new StringBuilder();
 
-		sb.append("DELETE FROM ");
-		sb.append(getQualifiedTableName());
-		sb.append(" WHERE ");
+		sb.append(getDeletePrefix());
 
 		boolean skipSeparator = true;
 
-		for (String columnName : getPrimaryKeyColumnNames()) {
-			TableColumn column = columns.get(columnName);
-
+		for (TableColumn column : primaryKeyColumns) {
 			if (!skipSeparator) {
 				sb.append(" AND ");
 			}
 
-			sb.append(quoteIdentifier(columnName));
+			sb.append(column.quotedName);
 			sb.append(" = ");
 
 			if (primaryKeyValues != null) {
-				sb.append(primaryKeyValues.get(columnName).toQuotedString());
+				sb.append(primaryKeyValues.get(column.name).toQuotedString());
 				sb.append("::");
 				sb.append(column.type);
 			} else {
-				sb.append('?');
+				sb.append("?::");
+				sb.append(column.type);
 			}
 
 			skipSeparator = false;
@@ -259,29 +440,39 @@ public class TableSchema {
 	}
 
 	public String toUpsert() {
-		StringBuilder sb = new StringBuilder();
+		StatementTemplates templates = getStatementTemplates();
 
-		sb.append(toInsert());
-		sb.append(" ON CONFLICT (");
+		return templates.insertPrefix + templates.parameterValues + templates.onConflictUpdate;
+	}
 
-		boolean skipSeparator = true;
+	/*
+	 * toOnConflict returns the ON CONFLICT clause of an insert that either
+	 * overwrites the non-key columns of existing rows or leaves existing rows
+	 * as they are.
+	 */
+	public String toOnConflict(boolean update) {
+		StatementTemplates templates = getStatementTemplates();
 
-		for (String columnName : getPrimaryKeyColumnNames()) {
-			if (!skipSeparator) {
-				sb.append(", ");
-			}
+		return update ? templates.onConflictUpdate : templates.onConflictNothing;
+	}
+
+	private String compileOnConflict(boolean update) {
+		StringBuilder sb = new StringBuilder();
 
-			sb.append(TableSchema.quoteIdentifier(columnName));
+		sb.append(" ON CONFLICT (");
+		sb.append(compilePrimaryKeyList());
 
-			skipSeparator = false;
+		if (!update || columns.size() == primaryKey.size()) {
+			sb.append(") DO NOTHING");
+			return sb.toString();
 		}
 
 		sb.append(") DO UPDATE SET ");
 
-		skipSeparator = true;
+		boolean skipSeparator = true;
 
-		for (String columnName : getColumnNames()) {
-			if (isInPrimaryKey(columnName)) {
+		for (TableColumn column : columnsByOrdinal) {
+			if (isInPrimaryKey(column.name)) {
 				continue;
 			}
 
@@ -289,54 +480,284 @@ public class TableSchema {
 				sb.append(", ");
 			}
 
-			sb.append(TableSchema.quoteIdentifier(columnName));
+			sb.append(column.quotedName);
 			sb.append(" = EXCLUDED.");
-			sb.append(TableSchema.quoteIdentifier(columnName));
+			sb.append(column.quotedName);
 
 			skipSeparator = false;
 		}
 
+		if (isSequenced()) {
+			/* skip changes that are older than the change that wrote the row */
+			String sequenceColumn = compileQualifiedTableName() + "." + quoteIdentifier(SEQUENCE_COLUMN_NAME);
+
+			sb.append(" WHERE ");
+			sb.append(sequenceColumn);
+			sb.append(" IS NULL OR ");
+			sb.append(sequenceColumn);
+			sb.append(" < EXCLUDED.");
+			sb.append(quoteIdentifier(SEQUENCE_COLUMN_NAME));
+		}
+
 		return sb.toString();
 	}
 
-	public String toInsert() {
+	/*
+	 * getStagingTableName returns the name of the temporary table into which
+	 * batches are copied before they are merged into the table.
+	 */
+	public String getStagingTableName() {
+		return getStatementTemplates().stagingTableName;
+	}
+
+	/*
+	 * compileTemporaryTableName returns the name of a temporary table for this
+	 * table with the given prefix. The name ends in a hash of the qualified
+	 * table name, such that tables whose names only differ beyond the length
+	 * limit of identifiers, or only in their schema, do not share a temporary
+	 * table.
+	 */
+	private String compileTemporaryTableName(String prefix) {
+		CRC32 crc = new CRC32();
+		crc.update(compileQualifiedTableName().getBytes(StandardCharsets.UTF_8));
+
+		String suffix = String.format("_%08x", crc.getValue());
+		int maxNameBytes = MAX_IDENTIFIER_BYTES - prefix.length() - suffix.length();
+
+		return quoteIdentifier(prefix + truncateIdentifier(tableName, maxNameBytes) + suffix);
+	}
+
+	/*
+	 * truncateIdentifier returns the longest prefix of the identifier that
+	 * fits in the given number of bytes in UTF-8, without splitting a
+	 * character.
+	 */
+	public static String truncateIdentifier(String identifier, int maxBytes) {
+		int numBytes = 0;
+		int end = 0;
+
+		while (end < identifier.length()) {
+			int codePoint = identifier.codePointAt(end);
+			int charBytes = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+
+			if (numBytes + charBytes > maxBytes) {
+				break;
+			}
+
+			numBytes += charBytes;
+			end += Character.charCount(codePoint);
+		}
+
+		return identifier.substring(0, end);
+	}
+
+	/*
+	 * createStagingTableDDL returns the command to create a temporary table
+	 * with the same columns as the table, which is emptied at the end of
+	 * every transaction.
+	 */
+	public String createStagingTableDDL() {
 		StringBuilder sb = new StringBuilder();
 
+		sb.append("CREATE TEMPORARY TABLE ");
+		sb.append(getStagingTableName());
+		sb.append(" (LIKE ");
+		sb.append(getQualifiedTableName());
+		sb.append(") ON COMMIT DELETE ROWS");
+
+		return sb.toString();
+	}
+
+	public String copyIntoStaging() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("COPY ");
+		sb.append(getStagingTableName());
+		sb.append(" (");
+		sb.append(toColumnList());
+		sb.append(") FROM STDIN");
+
+		return sb.toString();
+	}
+
+	public String copyIntoStagingBinary() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append(copyIntoStaging());
+		sb.append(" WITH (FORMAT binary)");
+
+		return sb.toString();
+	}
+
+	/*
+	 * toMergeFromStaging returns the command that inserts the rows in the
+	 * staging table into the table, either overwriting or skipping rows that
+	 * already exist.
+	 */
+	public String toMergeFromStaging(boolean update) {
+		StringBuilder sb = new StringBuilder();
+		String columnList = toColumnList();
+
 		sb.append("INSERT INTO ");
 		sb.append(getQualifiedTableName());
 		sb.append(" (");
+		sb.append(columnList);
+		sb.append(") SELECT ");
+		sb.append(columnList);
+		sb.append(" FROM ");
+		sb.append(getStagingTableName());
+		sb.append(toOnConflict(update));
+
+		return sb.toString();
+	}
+
+	/*
+	 * getChangeTableName returns the name of the temporary table into which
+	 * changes are copied before they are merged into the table.
+	 */
+	public String getChangeTableName() {
+		return getStatementTemplates().changeTableName;
+	}
+
+	/*
+	 * createChangeTableDDL returns the command to create a temporary table
+	 * with the columns of this version of the schema and an additional column
+	 * that marks deleted keys, which is emptied at the end of every
+	 * transaction. Deleted keys are written with NULL in all other columns,
+	 * so the change table is created without the constraints of the table.
+	 */
+	public String createChangeTableDDL() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("CREATE TEMPORARY TABLE ");
+		sb.append(getChangeTableName());
+		sb.append(" ON COMMIT DELETE ROWS AS SELECT ");
+		sb.append(toColumnList());
+		sb.append(", NULL::boolean AS ");
+		sb.append(DELETED_COLUMN_NAME);
+		sb.append(" FROM ");
+		sb.append(getQualifiedTableName());
+		sb.append(" WITH NO DATA");
+
+		return sb.toString();
+	}
+
+	public String copyIntoChangeTable() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("COPY ");
+		sb.append(getChangeTableName());
+		sb.append(" (");
+		sb.append(toColumnList());
+		sb.append(", ");
+		sb.append(DELETED_COLUMN_NAME);
+		sb.append(") FROM STDIN");
+
+		return sb.toString();
+	}
+
+	/*
+	 * toMergeUpsertsFromChangeTable returns the command that upserts the rows
+	 * in the change table that are not marked as deleted.
+	 */
+	public String toMergeUpsertsFromChangeTable() {
+		StringBuilder sb = new StringBuilder();
+		String columnList = toColumnList();
+
+		sb.append("INSERT INTO ");
+		sb.append(getQualifiedTableName());
+		sb.append(" (");
+		sb.append(columnList);
+		sb.append(") SELECT ");
+		sb.append(columnList);
+		sb.append(" FROM ");
+		sb.append(getChangeTableName());
+		sb.append(" WHERE NOT ");
+		sb.append(DELETED_COLUMN_NAME);
+		sb.append(toOnConflict(true));
+
+		return sb.toString();
+	}
+
+	/*
+	 * toMergeDeletesFromChangeTable returns the command that deletes the rows
+	 * whose keys are marked as deleted in the change table.
+	 */
+	public String toMergeDeletesFromChangeTable() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("DELETE FROM ");
+		sb.append(getQualifiedTableName());
+		sb.append(" AS target USING ");
+		sb.append(getChangeTableName());
+		sb.append(" AS change WHERE change.");
+		sb.append(DELETED_COLUMN_NAME);
+
+		for (String columnName : getPrimaryKeyColumnNames()) {
+			String quotedName = quoteIdentifier(columnName);
+
+			sb.append(" AND target.");
+			sb.append(quotedName);
+			sb.append(" = change.");
+			sb.append(quotedName);
+		}
+
+		return sb.toString();
+	}
+
+	/*
+	 * toInsert returns a single command that inserts all the given rows.
+	 */
+	public String toInsert(List<TableRow> tableRows) {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append(getInsertPrefix());
 
 		boolean skipSeparator = true;
 
-		for (String columnName : getColumnNames()) {
+		for (TableRow tableRow : tableRows) {
 			if (!skipSeparator) {
 				sb.append(", ");
 			}
 
-			sb.append(TableSchema.quoteIdentifier(columnName));
+			sb.append(tableRow.toValues());
 
 			skipSeparator = false;
 		}
 
-		sb.append(") VALUES ");
-		sb.append(toValues());
+		return sb.toString();
+	}
+
+	/*
+	 * toUpsert returns a single command that inserts or overwrites all the
+	 * given rows. The rows must have distinct primary keys.
+	 */
+	public String toUpsert(List<TableRow> tableRows) {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append(toInsert(tableRows));
+		sb.append(getStatementTemplates().onConflictUpdate);
 
 		return sb.toString();
 	}
 
-	public String toValues() {
+	/*
+	 * toDeleteKeys returns a single command that deletes the rows with any of the
+	 * given primary keys.
+	 */
+	public String toDeleteKeys(Collection<PrimaryKeyValue> primaryKeyValues) {
 		StringBuilder sb = new StringBuilder();
 
-		sb.append("(");
+		sb.append(getStatementTemplates().deleteKeysPrefix);
 
 		boolean skipSeparator = true;
 
-		for (TableColumn column : columns.values()) {
+		for (PrimaryKeyValue primaryKeyValue : primaryKeyValues) {
 			if (!skipSeparator) {
 				sb.append(", ");
 			}
 
-			sb.append("?");
+			sb.append(primaryKeyValue.toValues());
 
 			skipSeparator = false;
 		}
@@ -346,32 +767,90 @@ public class TableSchema {
 		return sb.toString();
 	}
 
-	public String getMaxPrimaryKeyDml() {
+	private String compilePrimaryKeyList() {
 		StringBuilder sb = new StringBuilder();
-		StringBuilder pkSb = new StringBuilder();
-		StringBuilder pkOb = new StringBuilder();
-		sb.append("SELECT ");
+
 		boolean skipSeparator = true;
 
-		for (String columnName : getPrimaryKeyColumnNames() ) {
+		for (TableColumn column : primaryKeyColumns) {
 			if (!skipSeparator) {
-				pkSb.append(", ");
-				pkOb.append(", ");
+				sb.append(", ");
 			}
 
-			pkSb.append(TableSchema.quoteIdentifier(columnName));
-			pkOb.append(TableSchema.quoteIdentifier(columnName));
-			pkOb.append(" DESC");
+			sb.append(column.quotedName);
 
 			skipSeparator = false;
 		}
-		sb.append(pkSb.toString());
-		sb.append(" FROM ");
-		sb.append(getQualifiedTableName());
-		sb.append(" ORDER BY ");
-		sb.append(pkOb.toString());
-		sb.append(" LIMIT 1;");
-		
+
+		return sb.toString();
+	}
+
+	public String toColumnList() {
+		return getStatementTemplates().columnList;
+	}
+
+	private String compileColumnList() {
+		StringBuilder sb = new StringBuilder();
+
+		boolean skipSeparator = true;
+
+		for (TableColumn column : columnsByOrdinal) {
+			if (!skipSeparator) {
+				sb.append(", ");
+			}
+
+			sb.append(column.quotedName);
+
+			skipSeparator = false;
+		}
+
+		return sb.toString();
+	}
+
+	public String toInsert() {
+		StatementTemplates templates = getStatementTemplates();
+
+		return templates.insertPrefix + templates.parameterValues;
+	}
+
+	/*
+	 * getInsertPrefix returns the INSERT command up to and including VALUES.
+	 */
+	public String getInsertPrefix() {
+		return getStatementTemplates().insertPrefix;
+	}
+
+	/*
+	 * getDeletePrefix returns the DELETE command up to and including WHERE.
+	 */
+	public String getDeletePrefix() {
+		return getStatementTemplates().deletePrefix;
+	}
+
+	public String toValues() {
+		return getStatementTemplates().parameterValues;
+	}
+
+	private String compileParameterValues() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("(");
+
+		boolean skipSeparator = true;
+
+		for (TableColumn column : columnsByOrdinal) {
+			if (!skipSeparator) {
+				sb.append(", ");
+			}
+
+			sb.append("?::");
+			sb.append(column.type);
+
+			skipSeparator = false;
+		}
+
+		sb.append(")");
+
 		return sb.toString();
 	}
 
@@ -388,13 +867,33 @@ public class TableSchema {
 	}
 
 	public Iterable<TableColumn> getColumns() {
-		return this.columns.values();
+		return this.columnsByOrdinal;
 	}
 
 	public TableColumn getColumn(String keyName) {
 		return columns.get(keyName);
 	}
 
+	public TableColumn getColumn(int ordinal) {
+		return columnsByOrdinal.get(ordinal);
+	}
+
+	/*
+	 * getPrimaryKeyColumns returns the columns of the primary key in key
+	 * order, which is the order in which PrimaryKeyValue stores them.
+	 */
+	public List<TableColumn> getPrimaryKeyColumns() {
+		return this.primaryKeyColumns;
+	}
+
+	/*
+	 * primaryKeyIndex returns the position of a column in the primary key, or
+	 * -1 if it is not part of the primary key.
+	 */
+	public int primaryKeyIndex(String columnName) {
+		return this.primaryKey != null ? this.primaryKey.indexOf(columnName) : -1;
+	}
+
 	public int columnCount() {
 		return columns.size();
 	}
@@ -403,4 +902,42 @@ public class TableSchema {
 		return this.primaryKey.contains(key);
 	}
 
+	/*
+	 * StatementTemplates holds the SQL fragments of a version of the schema.
+	 */
+	private static final class StatementTemplates {
+
+		final String qualifiedTableName;
+		final String columnList;
+		final String parameterValues;
+		final String insertPrefix;
+		final String onConflictUpdate;
+		final String onConflictNothing;
+		final String deletePrefix;
+		final String deleteKeysPrefix;
+		final String stagingTableName;
+		final String changeTableName;
+
+		StatementTemplates(TableSchema tableSchema) {
+			this.qualifiedTableName = tableSchema.compileQualifiedTableName();
+			this.columnList = tableSchema.compileColumnList();
+			this.parameterValues = tableSchema.compileParameterValues();
+			this.insertPrefix = "INSERT INTO " + qualifiedTableName + " (" + columnList + ") VALUES ";
+			this.deletePrefix = "DELETE FROM " + qualifiedTableName + " WHERE ";
+			this.stagingTableName = tableSchema.compileTemporaryTableName("podyn_staging_");
+			this.changeTableName = tableSchema.compileTemporaryTableName("podyn_changes_");
+
+			if (tableSchema.primaryKey != null) {
+				this.onConflictUpdate = tableSchema.compileOnConflict(true);
+				this.onConflictNothing = tableSchema.compileOnConflict(false);
+				this.deleteKeysPrefix = deletePrefix + "(" + tableSchema.compilePrimaryKeyList() + ") IN (";
+			} else {
+				this.onConflictUpdate = null;
+				this.onConflictNothing = null;
+				this.deleteKeysPrefix = null;
+			}
+		}
+
+	}
+
 }
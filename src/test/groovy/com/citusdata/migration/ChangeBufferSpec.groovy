@@ -0,0 +1,258 @@
+package com.citusdata.migration
+
+import java.util.concurrent.ExecutorService
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue
+import com.amazonaws.services.dynamodbv2.model.Record
+import com.amazonaws.services.dynamodbv2.model.StreamRecord
+import com.amazonaws.services.dynamodbv2.streamsadapter.model.RecordAdapter
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.v2.IRecordProcessor
+import com.amazonaws.services.kinesis.clientlibrary.lib.worker.ShutdownReason
+import com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput
+import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownInput
+import com.citusdata.migration.datamodel.TableEmitter
+import com.citusdata.migration.datamodel.TableModification
+import com.citusdata.migration.datamodel.TableSchema
+import com.merqueo.data.dynamocrawler.UnitTest
+import org.junit.experimental.categories.Category
+import spock.lang.Specification
+
+import static com.citusdata.migration.datamodel.TableModificationBatchSpec.table
+import static com.citusdata.migration.datamodel.TableModificationBatchSpec.upsert
+
+@Category(UnitTest.class)
+class ChangeBufferSpec extends Specification {
+
+    TableSchema events = table('events')
+    TableEmitter emitter = Mock()
+    IRecordProcessorCheckpointer checkpointer = Mock()
+    DynamoDBTableReplicator replicator
+
+    def setup() {
+        emitter.fetchSchema('events', 'public') >> events
+
+        replicator = new DynamoDBTableReplicator(null, null, null, Mock(ExecutorService), emitter, 'events', 'public')
+        replicator.setAddColumnEnabled(false)
+    }
+
+    static RecordAdapter modifyRecord(String id, String sequenceNumber) {
+        Map<String,AttributeValue> item = [id: new AttributeValue().withS(id)]
+
+        return new RecordAdapter(new Record()
+                .withEventName('MODIFY')
+                .withDynamodb(new StreamRecord()
+                        .withKeys(item)
+                        .withNewImage(item)
+                        .withSequenceNumber(sequenceNumber)))
+    }
+
+    void process(IRecordProcessor processor, List<RecordAdapter> records) {
+        processor.processRecords(new ProcessRecordsInput().withRecords(records).withCheckpointer(checkpointer))
+    }
+
+    void shutdown(IRecordProcessor processor, ShutdownReason reason) {
+        processor.shutdown(new ShutdownInput().withShutdownReason(reason).withCheckpointer(checkpointer))
+    }
+
+    def 'the buffer is flushed when its window expires'() {
+        setup:
+        ChangeBuffer buffer = new ChangeBuffer(1000, 100)
+
+        expect:
+        !buffer.shouldFlush()
+
+        when:
+        buffer.add([upsert(events, 'a', 1)])
+
+        then:
+        !buffer.shouldFlush()
+
+        when:
+        buffer.windowStartMillis -= 1000
+
+        then:
+        buffer.getAgeMillis() >= 1000
+        buffer.shouldFlush()
+    }
+
+    def 'the buffer is flushed when it holds the maximum number of keys'() {
+        setup:
+        ChangeBuffer buffer = new ChangeBuffer(60000, 2)
+
+        when:
+        buffer.add([upsert(events, 'a', 1), upsert(events, 'a', 2)])
+
+        then:
+        buffer.size() == 1
+        buffer.getChangeCount() == 2
+        !buffer.shouldFlush()
+
+        when:
+        buffer.add([upsert(events, 'b', 1)])
+
+        then:
+        buffer.shouldFlush()
+    }
+
+    def 'the buffer is flushed when the heap is more than 80% full'() {
+        setup:
+        boolean memoryLow = false
+        ChangeBuffer buffer = new ChangeBuffer(60000, 100) {
+            @Override
+            boolean isMemoryLow() {
+                return memoryLow
+            }
+        }
+        buffer.add([upsert(events, 'a', 1)])
+
+        expect:
+        !buffer.shouldFlush()
+        !ChangeBuffer.isMemoryLow(800, 1000)
+        ChangeBuffer.isMemoryLow(801, 1000)
+
+        when:
+        memoryLow = true
+
+        then:
+        buffer.shouldFlush()
+    }
+
+    def 'draining returns the last change to each key and empties the buffer'() {
+        setup:
+        ChangeBuffer buffer = new ChangeBuffer(60000, 100)
+        TableModification a2 = upsert(events, 'a', 2)
+        TableModification b1 = upsert(events, 'b', 1)
+
+        when:
+        buffer.add([upsert(events, 'a', 1), b1, a2])
+        List<TableModification> drained = buffer.drain()
+
+        then:
+        drained.size() == 2
+        drained[0].is(b1)
+        drained[1].is(a2)
+        buffer.isEmpty()
+        buffer.getChangeCount() == 0
+        buffer.getAgeMillis() == 0
+        !buffer.shouldFlush()
+    }
+
+    def 'the shard is checkpointed at the last buffered record after a flush'() {
+        setup:
+        replicator.setChangeBuffer(60000, 2)
+        IRecordProcessor processor = replicator.createStreamProcessor()
+        def first = modifyRecord('a', '100')
+        def second = modifyRecord('b', '101')
+
+        when:
+        process(processor, [first])
+
+        then:
+        0 * emitter.applyBatch(_)
+        0 * checkpointer._
+
+        when:
+        process(processor, [second])
+
+        then:
+        1 * emitter.applyBatch({ it.size() == 2 })
+
+        then:
+        1 * checkpointer.checkpoint(second)
+        0 * checkpointer._
+    }
+
+    def 'the checkpoint does not move past records that are not flushed'() {
+        setup:
+        replicator.setChangeBuffer(60000, 2)
+        IRecordProcessor processor = replicator.createStreamProcessor()
+        def flushed = modifyRecord('b', '101')
+        def buffered = modifyRecord('c', '102')
+
+        when:
+        process(processor, [modifyRecord('a', '100'), flushed])
+        process(processor, [buffered])
+
+        then:
+        1 * emitter.applyBatch(_)
+        1 * checkpointer.checkpoint(flushed)
+        0 * checkpointer.checkpoint(buffered)
+        replicator.getBufferedKeyCount() == 1
+    }
+
+    def 'an expired window is flushed on the next call without records'() {
+        setup:
+        replicator.setChangeBuffer(60000, 100)
+        IRecordProcessor processor = replicator.createStreamProcessor()
+        def record = modifyRecord('a', '100')
+
+        when:
+        process(processor, [record])
+        processor.changeBuffer.windowStartMillis -= 60000
+        process(processor, [])
+
+        then:
+        1 * emitter.applyBatch({ it.size() == 1 })
+
+        then:
+        1 * checkpointer.checkpoint(record)
+    }
+
+    def 'with a checkpoint lag, the checkpoint waits until the flush is durable'() {
+        setup:
+        replicator.setChangeBuffer(60000, 1)
+        replicator.setCheckpointLag(100)
+        IRecordProcessor processor = replicator.createStreamProcessor()
+        def record = modifyRecord('a', '100')
+
+        when:
+        process(processor, [record])
+
+        then:
+        1 * emitter.applyBatch(_)
+        0 * checkpointer._
+
+        when:
+        Thread.sleep(150)
+        process(processor, [])
+
+        then:
+        0 * emitter.applyBatch(_)
+        1 * checkpointer.checkpoint(record)
+    }
+
+    def 'a zombie shutdown discards the buffer without a checkpoint'() {
+        setup:
+        replicator.setChangeBuffer(60000, 100)
+        IRecordProcessor processor = replicator.createStreamProcessor()
+
+        when:
+        process(processor, [modifyRecord('a', '100'), modifyRecord('b', '101')])
+        shutdown(processor, ShutdownReason.ZOMBIE)
+
+        then:
+        0 * emitter.applyBatch(_)
+        0 * checkpointer._
+        replicator.getBufferedKeyCount() == 0
+        processor.changeBuffer.isEmpty()
+    }
+
+    def 'a requested shutdown flushes the buffer before the checkpoint'() {
+        setup:
+        replicator.setChangeBuffer(60000, 100)
+        IRecordProcessor processor = replicator.createStreamProcessor()
+        def record = modifyRecord('b', '101')
+
+        when:
+        process(processor, [modifyRecord('a', '100'), record])
+        shutdown(processor, ShutdownReason.REQUESTED)
+
+        then:
+        1 * emitter.applyBatch({ it.size() == 2 })
+
+        then:
+        1 * checkpointer.checkpoint(record)
+        0 * checkpointer._
+    }
+}
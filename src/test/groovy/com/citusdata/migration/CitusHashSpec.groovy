@@ -0,0 +1,72 @@
+package com.citusdata.migration
+
+import java.nio.charset.StandardCharsets
+
+import com.citusdata.migration.datamodel.TableColumnType
+import com.citusdata.migration.datamodel.TableColumnValue
+import com.merqueo.data.dynamocrawler.UnitTest
+import org.junit.experimental.categories.Category
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ Expected values are the output of PostgreSQL 14 in a UTF8 database, e.g.
+ SELECT hashtext('hello world'), hash_numeric(1.5), hashchar(chr(1)::"char")
+ */
+@Category(UnitTest.class)
+class CitusHashSpec extends Specification {
+
+    @Unroll
+    def 'text of #numBytes bytes hashes like hashtext'() {
+        expect:
+        CitusHash.hashBytes(text.getBytes(StandardCharsets.UTF_8)) == expected
+        CitusHash.hashValue(new TableColumnValue(TableColumnType.text, text)) == expected
+
+        where:
+        text                                          | numBytes | expected
+        ''                                            | 0        | -1477818771
+        'a'                                           | 1        | 1075015857
+        'hello world'                                 | 11       | 1021725223
+        'hello world!'                                | 12       | 1400155871
+        'hello world!!'                               | 13       | -2118108552
+        'The quick brown fox jumps over the lazy dog' | 43       | -827430201
+        'héllo wörld'                                 | 13       | 1823351448
+    }
+
+    @Unroll
+    def 'numeric #value hashes like hash_numeric'() {
+        expect:
+        CitusHash.hashNumeric(new BigDecimal(value)) == expected
+        CitusHash.hashValue(new TableColumnValue(TableColumnType.numeric, new BigDecimal(value))) == expected
+
+        where:
+        value                            | expected
+        '0'                              | -1
+        '0.000'                          | -1
+        '1'                              | 1324868424
+        '-1'                             | 1324868424
+        '100'                            | 1186574835
+        '100.00'                         | 1186574835
+        '1E+2'                           | 1186574835
+        '100000'                         | -1143929985
+        '1E+5'                           | -1143929985
+        '12345678'                       | 1449191576
+        '1.5'                            | 692967894
+        '1.500'                          | 692967894
+        '0.0001'                         | -1324868425
+        '0.00012'                        | 1267246686
+        '-3.14159'                       | -1199781476
+        '123456789012345678901234567890' | 1568555724
+    }
+
+    @Unroll
+    def 'bool #value hashes like hashchar'() {
+        expect:
+        CitusHash.hashValue(TableColumnValue.of(value)) == expected
+
+        where:
+        value | expected
+        true  | -1905060026
+        false | -272711505
+    }
+}
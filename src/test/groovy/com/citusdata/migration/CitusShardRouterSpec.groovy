@@ -0,0 +1,85 @@
+package com.citusdata.migration
+
+import com.citusdata.migration.datamodel.PrimaryKeyValue
+import com.citusdata.migration.datamodel.TableColumnType
+import com.citusdata.migration.datamodel.TableSchema
+import com.merqueo.data.dynamocrawler.UnitTest
+import org.junit.experimental.categories.Category
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Category(UnitTest.class)
+class CitusShardRouterSpec extends Specification {
+
+    def tableSchema = distributedTable('events')
+
+    /* hash ranges of a table with 4 shards, as assigned by create_distributed_table */
+    def router = new CitusShardRouter(tableSchema, [
+            new CitusShard(102008, Integer.MIN_VALUE, -1073741825),
+            new CitusShard(102009, -1073741824, -1),
+            new CitusShard(102010, 0, 1073741823),
+            new CitusShard(102011, 1073741824, Integer.MAX_VALUE)])
+
+    static TableSchema distributedTable(String tableName) {
+        TableSchema tableSchema = new TableSchema(tableName, 'public')
+        tableSchema.addColumn('id', TableColumnType.text)
+        tableSchema.setPrimaryKey(['id'])
+        tableSchema.setDistributionColumn('id')
+        return tableSchema
+    }
+
+    @Unroll
+    def 'hash value #hashValue is in shard #expected'() {
+        expect:
+        router.shardIndex(hashValue) == expected
+
+        where:
+        hashValue         | expected
+        Integer.MIN_VALUE | 0
+        -1073741825       | 0
+        -1073741824       | 1
+        -1                | 1
+        0                 | 2
+        1073741823        | 2
+        1073741824        | 3
+        Integer.MAX_VALUE | 3
+    }
+
+    def 'hash values outside the shard ranges have no shard'() {
+        setup:
+        def partialRouter = new CitusShardRouter(tableSchema, [
+                new CitusShard(102008, -100, -1),
+                new CitusShard(102009, 1, 100)])
+
+        expect:
+        partialRouter.shardIndex(-101) == -1
+        partialRouter.shardIndex(0) == -1
+        partialRouter.shardIndex(101) == -1
+        partialRouter.shardIndex(-100) == 0
+        partialRouter.shardIndex(100) == 1
+    }
+
+    def 'keys are routed by the hash of the distribution column'() {
+        setup:
+        PrimaryKeyValue key = new PrimaryKeyValue(tableSchema)
+        key.setValue('id', 'hello world')
+
+        expect:
+        /* hashtext('hello world') is 1021725223 */
+        router.shardIndex(key) == 2
+    }
+
+    @Unroll
+    def 'shard of table #tableName is loaded directly: #direct'() {
+        expect:
+        (new CitusShard(102008, 0, 1).getShardTableName(distributedTable(tableName)) != null) == direct
+
+        where:
+        tableName                                            | direct
+        'events'                                             | true
+        'a' * 56                                             | true
+        'a' * 57                                             | false
+        'é' * 28                                             | true
+        'é' * 29                                             | false
+    }
+}
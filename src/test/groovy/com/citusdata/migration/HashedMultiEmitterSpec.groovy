@@ -0,0 +1,134 @@
+package com.citusdata.migration
+
+import com.citusdata.migration.datamodel.PrimaryKeyValue
+import com.citusdata.migration.datamodel.TableModification
+import com.citusdata.migration.datamodel.TableColumnType
+import com.citusdata.migration.datamodel.TableEmitter
+import com.citusdata.migration.datamodel.TableSchema
+import com.merqueo.data.dynamocrawler.UnitTest
+import org.junit.experimental.categories.Category
+import spock.lang.Specification
+
+import static com.citusdata.migration.CitusShardRouterSpec.distributedTable
+import static com.citusdata.migration.datamodel.TableModificationBatchSpec.delete
+import static com.citusdata.migration.datamodel.TableModificationBatchSpec.table
+import static com.citusdata.migration.datamodel.TableModificationBatchSpec.upsert
+
+@Category(UnitTest.class)
+class HashedMultiEmitterSpec extends Specification {
+
+    List<TableEmitter> emitters = (1..4).collect { Mock(TableEmitter) }
+    HashedMultiEmitter emitter = new HashedMultiEmitter(emitters)
+
+    static TableSchema localTable(String tableName) {
+        TableSchema tableSchema = new TableSchema(tableName, 'public')
+        tableSchema.addColumn('id', TableColumnType.text)
+        tableSchema.setPrimaryKey(['id'])
+        return tableSchema
+    }
+
+    static PrimaryKeyValue key(TableSchema tableSchema, String id) {
+        PrimaryKeyValue key = new PrimaryKeyValue(tableSchema)
+        key.setValue('id', id)
+        return key
+    }
+
+    List<Integer> indexes(TableSchema tableSchema) {
+        return (0..<100).collect { emitter.emitterIndex(key(tableSchema, "k$it")) }
+    }
+
+    def 'keys are spread over all emitters'() {
+        expect:
+        indexes(table).every { it >= 0 && it < 4 }
+        indexes(table).toSet() == [0, 1, 2, 3] as Set
+
+        where:
+        table << [distributedTable('events'), localTable('events')]
+    }
+
+    def 'a key always uses the same emitter'() {
+        setup:
+        TableSchema events = distributedTable('events')
+        TableSchema newerEvents = events.withColumns([extra: TableColumnType.text])
+
+        expect:
+        indexes(events) == indexes(events)
+        indexes(events) == indexes(newerEvents)
+    }
+
+    def 'keys with the same distribution column value use the same emitter'() {
+        setup:
+        TableSchema events = distributedTable('events')
+        events.addColumn('ts', TableColumnType.numeric)
+        events.setPrimaryKey(['id', 'ts'])
+
+        List<Integer> firstIndexes = (0..<100).collect {
+            PrimaryKeyValue key = key(events, "k$it")
+            key.setValue('ts', 1)
+            emitter.emitterIndex(key)
+        }
+        List<Integer> secondIndexes = (0..<100).collect {
+            PrimaryKeyValue key = key(events, "k$it")
+            key.setValue('ts', 2)
+            emitter.emitterIndex(key)
+        }
+
+        expect:
+        firstIndexes == secondIndexes
+    }
+
+    def 'equal keys of different tables are spread over different emitters'() {
+        expect:
+        [indexes(first), indexes(second)].transpose().count { it[0] != it[1] } > 50
+
+        where:
+        first                       | second
+        distributedTable('events')  | distributedTable('clicks')
+        localTable('events')        | localTable('clicks')
+    }
+
+    static List<String> keyTexts(List<TableModification> modifications) {
+        return modifications.collect { it.getPrimaryKeyValue().tableSchema.tableName + ' ' + it.getPrimaryKeyValue().toValues() }
+    }
+
+    def 'unordered batches are sorted by table and key before they are split'() {
+        setup:
+        TableSchema events = table('events')
+        TableSchema clicks = table('clicks')
+        List<TableModification> modifications = []
+        (0..<50).each {
+            modifications << upsert(events, "k$it", it)
+            modifications << delete(clicks, "k$it")
+        }
+        Collections.shuffle(modifications, new Random(42))
+
+        List<List<TableModification>> parts = Collections.synchronizedList([])
+        emitters.each { it.applyBatch(_) >> { args -> parts << args[0] } }
+        emitter.setUnorderedApply(true)
+
+        when:
+        emitter.applyBatch(modifications)
+
+        then:
+        parts.size() == 4
+        parts.every { it.size() == 25 }
+
+        and: 'the parts are consecutive ranges of the sorted batch'
+        List<TableModification> sorted = new ArrayList<>(modifications)
+        Collections.sort(sorted, HashedMultiEmitter.KEY_ORDER)
+        keyTexts(parts.sort(false) { keyTexts(it)[0] }.flatten()) == keyTexts(sorted)
+        keyTexts(sorted).take(50).every { it.startsWith('clicks ') }
+        keyTexts(sorted).take(3) == ["clicks ('k0'::text)", "clicks ('k1'::text)", "clicks ('k10'::text)"]
+    }
+
+    def 'keys of different schema versions of a table have the same order'() {
+        setup:
+        TableSchema events = table('events')
+        TableSchema newerEvents = events.withColumns([extra: TableColumnType.text])
+
+        expect:
+        key(events, 'a').compareTo(key(newerEvents, 'a')) == 0
+        key(events, 'a').compareTo(key(newerEvents, 'b')) < 0
+        key(newerEvents, 'b').compareTo(key(events, 'a')) > 0
+    }
+}
@@ -0,0 +1,96 @@
+package com.citusdata.migration
+
+import java.util.concurrent.ExecutorService
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue
+import com.citusdata.migration.datamodel.TableColumnType
+import com.citusdata.migration.datamodel.TableEmitter
+import com.citusdata.migration.datamodel.TableSchema
+import com.merqueo.data.dynamocrawler.UnitTest
+import org.junit.experimental.categories.Category
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static com.citusdata.migration.datamodel.TableModificationBatchSpec.table
+
+@Category(UnitTest.class)
+class ItemSignatureSpec extends Specification {
+
+    static AttributeValue s(String value) {
+        return new AttributeValue().withS(value)
+    }
+
+    static AttributeValue n(String value) {
+        return new AttributeValue().withN(value)
+    }
+
+    def 'items with the same attributes in a different order have the same signature'() {
+        setup:
+        Map<String,AttributeValue> first = new LinkedHashMap<>()
+        first.put('id', s('a'))
+        first.put('n', n('1'))
+        first.put('name', s('x'))
+        Map<String,AttributeValue> second = new LinkedHashMap<>()
+        second.put('name', s('y'))
+        second.put('id', s('b'))
+        second.put('n', n('2'))
+
+        expect:
+        DynamoDBTableReplicator.itemSignature(first) == DynamoDBTableReplicator.itemSignature(second)
+    }
+
+    @Unroll
+    def 'items with attributes #first and #second have different signatures'() {
+        expect:
+        DynamoDBTableReplicator.itemSignature(first) != DynamoDBTableReplicator.itemSignature(second)
+
+        where:
+        first                        | second
+        [id: s('a')]                 | [id: n('1')]
+        [id: s('a')]                 | [id: s('a'), n: n('1')]
+        [id: s('a'), n: n('1')]      | [id: n('1'), n: s('a')]
+        [Aa: s('a')]                 | [BB: s('a')]
+        [a: s('a'), b: s('b')]       | [a: s('a'), c: s('c')]
+        [:]                          | [id: s('a')]
+    }
+
+    def 'the signature cache forgets the least recently seen signature'() {
+        setup:
+        Map<Long,Boolean> cache = DynamoDBTableReplicator.newSignatureCache(2)
+
+        when:
+        cache.put(1L, true)
+        cache.put(2L, true)
+        cache.get(1L)
+        cache.put(3L, true)
+
+        then:
+        cache.keySet() as List == [1L, 3L]
+    }
+
+    def 'items with a known signature are not checked against the schema'() {
+        setup:
+        TableSchema events = table('events')
+        TableEmitter emitter = Mock()
+        emitter.fetchSchema('events', 'public') >> events
+        List<Integer> checkedItems = []
+
+        DynamoDBTableReplicator replicator = new DynamoDBTableReplicator(
+                null, null, null, Mock(ExecutorService), emitter, 'events', 'public') {
+            @Override
+            Map<String,TableColumnType> findNewColumns(TableSchema currentSchema, List<Map<String,AttributeValue>> items) {
+                checkedItems << items.size()
+                return super.findNewColumns(currentSchema, items)
+            }
+        }
+
+        when:
+        replicator.addNewColumns([[id: s('a'), n: n('1')], [n: n('2'), id: s('b')]])
+        replicator.addNewColumns([[id: s('c'), n: n('3')], [id: s('d')]])
+
+        then: 'only items whose signature was not seen before are checked'
+        checkedItems == [2, 1]
+        replicator.knownSignatures.size() == 2
+        0 * emitter.createColumns(_)
+    }
+}
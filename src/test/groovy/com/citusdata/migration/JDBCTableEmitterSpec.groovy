@@ -0,0 +1,240 @@
+package com.citusdata.migration
+
+import java.lang.reflect.InvocationHandler
+import java.lang.reflect.Proxy
+import java.sql.BatchUpdateException
+import java.sql.Connection
+import java.sql.PreparedStatement
+import java.sql.SQLException
+import java.sql.Statement
+
+import com.citusdata.migration.datamodel.TableColumnType
+import com.citusdata.migration.datamodel.TableModification
+import com.citusdata.migration.datamodel.TableSchema
+import com.merqueo.data.dynamocrawler.UnitTest
+import org.junit.experimental.categories.Category
+import org.postgresql.PGStatement
+import spock.lang.Specification
+
+import static com.citusdata.migration.datamodel.TableModificationBatchSpec.delete
+import static com.citusdata.migration.datamodel.TableModificationBatchSpec.table
+import static com.citusdata.migration.datamodel.TableModificationBatchSpec.upsert
+
+@Category(UnitTest.class)
+class JDBCTableEmitterSpec extends Specification {
+
+    Connection connection = Mock()
+    List<String> events = []
+    List<String> commands = []
+    List<SQLException> failures = []
+    List<String> prepared = []
+    List<String> closed = []
+    List<Integer> nullParameters = []
+    JDBCTableEmitter emitter
+    TableSchema tableSchema = table('events')
+
+    def setup() {
+        connection.prepareStatement(_) >> { String sql -> preparedStatement(sql) }
+        connection.createStatement() >> { statement() }
+        emitter = new JDBCTableEmitter(connection)
+        prepared.clear()
+    }
+
+    static String kind(String sql) {
+        return sql.startsWith('DELETE') ? 'delete' : sql.contains('ON CONFLICT') ? 'upsert' : 'insert'
+    }
+
+    /* a prepared statement that logs each batch it executes */
+    PreparedStatement preparedStatement(String sql) {
+        int batchSize = 0
+        prepared << sql
+
+        return (PreparedStatement) Proxy.newProxyInstance(getClass().classLoader, [PreparedStatement] as Class[],
+                { proxy, method, args ->
+                    switch (method.name) {
+                        case 'unwrap':
+                            return { int threshold -> } as PGStatement
+                        case 'setNull':
+                            nullParameters << (int) args[0]
+                            return null
+                        case 'close':
+                            closed << sql
+                            return null
+                        case 'addBatch':
+                            batchSize++
+                            return null
+                        case 'executeBatch':
+                            if (!failures.isEmpty()) {
+                                batchSize = 0
+                                throw failures.remove(0)
+                            }
+                            events << "prepared ${kind(sql)} x$batchSize".toString()
+                            batchSize = 0
+                            return new int[0]
+                        default:
+                            return null
+                    }
+                } as InvocationHandler)
+    }
+
+    /* a statement that logs the multi-row commands it executes */
+    Statement statement() {
+        return (Statement) Proxy.newProxyInstance(getClass().classLoader, [Statement] as Class[],
+                { proxy, method, args ->
+                    switch (method.name) {
+                        case 'addBatch':
+                            commands << args[0]
+                            events << "multi-row ${kind(args[0])}".toString()
+                            return null
+                        case 'executeBatch':
+                            return new int[0]
+                        default:
+                            return null
+                    }
+                } as InvocationHandler)
+    }
+
+    def 'a long run of upserts is sent as multi-row commands'() {
+        setup:
+        List<TableModification> modifications = (0..<2500).collect { upsert(tableSchema, "k$it", it) }
+
+        when:
+        emitter.applyBatch(modifications)
+
+        then:
+        events == ['multi-row upsert'] * 3
+        commands[0].startsWith("INSERT INTO public.events (id, n) VALUES ('k0'::text, '0'::numeric), ('k1'::text")
+        commands[0].endsWith("('k999'::text, '999'::numeric) ON CONFLICT (id) DO UPDATE SET n = EXCLUDED.n")
+        commands[2].startsWith("INSERT INTO public.events (id, n) VALUES ('k2000'::text, '2000'::numeric)")
+        commands*.count('::text') == [1000, 1000, 500]
+    }
+
+    def 'short runs are sent through the prepared statements'() {
+        when:
+        emitter.applyBatch([
+                upsert(tableSchema, 'a', 1),
+                upsert(tableSchema, 'b', 2),
+                upsert(tableSchema, 'c', 3),
+                delete(tableSchema, 'a'),
+                delete(tableSchema, 'b')])
+
+        then:
+        events == ['prepared upsert x3', 'prepared delete x2']
+        commands.isEmpty()
+    }
+
+    def 'prepared statements and multi-row commands are executed in order'() {
+        setup:
+        List<TableModification> modifications = []
+        modifications.addAll((0..<5).collect { upsert(tableSchema, "a$it", it) })
+        modifications.addAll((0..<JDBCTableEmitter.MIN_MULTI_ROW_RUN).collect { delete(tableSchema, "b$it") })
+        modifications.addAll((0..<5).collect { upsert(tableSchema, "c$it", it) })
+
+        when:
+        emitter.applyBatch(modifications)
+
+        then:
+        events == ['prepared upsert x5', 'multi-row delete', 'prepared upsert x5']
+    }
+
+    def 'a run ends at a different kind or version of the table'() {
+        setup:
+        TableSchema newerSchema = tableSchema.withColumns([:])
+        List<TableModification> modifications = [
+                upsert(tableSchema, 'a', 1),
+                upsert(tableSchema, 'b', 2),
+                upsert(newerSchema, 'c', 3),
+                delete(newerSchema, 'd'),
+                delete(newerSchema, 'e')]
+
+        expect:
+        JDBCTableEmitter.runLength(modifications, 0) == 2
+        JDBCTableEmitter.runLength(modifications, 1) == 1
+        JDBCTableEmitter.runLength(modifications, 2) == 1
+        JDBCTableEmitter.runLength(modifications, 3) == 2
+    }
+
+    def 'statements are prepared again for a newer version of the table'() {
+        setup:
+        TableSchema newerSchema = tableSchema.withColumns([tags: TableColumnType.text])
+
+        when:
+        emitter.applyBatch([upsert(tableSchema, 'a', 1)])
+        emitter.applyBatch([upsert(tableSchema, 'b', 2)])
+
+        then: 'the statements of the table are prepared once'
+        prepared*.contains('tags') == [false] * 3
+        emitter.hasStatements(tableSchema)
+        !emitter.hasStatements(newerSchema)
+
+        when:
+        emitter.applyBatch([upsert(newerSchema, 'c', 3)])
+
+        then: 'a row of the newer version renews them'
+        prepared.size() == 6
+        prepared[3..5]*.contains('tags') == [true, true, false]
+        closed == prepared[0..2]
+        emitter.hasStatements(tableSchema)
+        emitter.hasStatements(newerSchema)
+
+        when:
+        nullParameters.clear()
+        emitter.applyBatch([upsert(tableSchema, 'd', 4)])
+
+        then: 'rows of the older version use the newer statements with NULL for the new column'
+        prepared.size() == 6
+        nullParameters == [3]
+        events.count('prepared upsert x1') == 4
+    }
+
+    static SQLException batchFailure(String sqlState) {
+        BatchUpdateException failure = new BatchUpdateException('Batch entry 0 was aborted', null, 0, new int[0])
+        failure.setNextException(new SQLException('ERROR: failed', sqlState))
+        return failure
+    }
+
+    def 'deadlocks and serialization failures are detected in failed batches'() {
+        expect:
+        JDBCTableEmitter.isTransactionConflict(new EmissionException(batchFailure('40P01')))
+        JDBCTableEmitter.isTransactionConflict(new EmissionException(new SQLException('ERROR: failed', '40001')))
+        !JDBCTableEmitter.isTransactionConflict(new EmissionException(batchFailure('23505')))
+        !JDBCTableEmitter.isTransactionConflict(new EmissionException(new RuntimeException('failed')))
+    }
+
+    def 'a batch that was aborted by a deadlock is applied again'() {
+        setup:
+        failures << batchFailure('40P01')
+
+        when:
+        emitter.applyBatch([upsert(tableSchema, 'a', 1), upsert(tableSchema, 'b', 2)])
+
+        then:
+        failures.isEmpty()
+        events == ['prepared upsert x2']
+    }
+
+    def 'a batch is attempted at most MAX_ATTEMPTS times'() {
+        setup:
+        JDBCTableEmitter.MAX_ATTEMPTS.times { failures << batchFailure('40P01') }
+
+        when:
+        emitter.applyBatch([upsert(tableSchema, 'a', 1)])
+
+        then:
+        thrown(EmissionException)
+        failures.isEmpty()
+        events.isEmpty()
+    }
+
+    def 'other errors are not retried'() {
+        setup:
+        failures << batchFailure('23505') << batchFailure('23505')
+
+        when:
+        emitter.applyBatch([upsert(tableSchema, 'a', 1)])
+
+        then:
+        thrown(EmissionException)
+        failures.size() == 1
+    }
+}
@@ -0,0 +1,76 @@
+package com.citusdata.migration
+
+import java.nio.ByteBuffer
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue
+import com.merqueo.data.dynamocrawler.UnitTest
+import org.junit.experimental.categories.Category
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Category(UnitTest.class)
+class ScanCursorSpec extends Specification {
+
+    static String keyJson(Map<String,AttributeValue> key) {
+        return new ScanCursor(0, 1, 0, key, false).getLastEvaluatedKeyJson()
+    }
+
+    @Unroll
+    def 'key of type #type is encoded as #expected'() {
+        expect:
+        keyJson([id: value]) == expected
+
+        where:
+        type | value                                                        | expected
+        'S'  | new AttributeValue().withS('a "b" é')                        | '{"id":{"S":"a \\"b\\" é"}}'
+        'N'  | new AttributeValue().withN('-12.50')                         | '{"id":{"N":"-12.50"}}'
+        'B'  | new AttributeValue().withB(ByteBuffer.wrap([0, -1, 16] as byte[])) | '{"id":{"B":"AP8Q"}}'
+    }
+
+    def 'keys survive a round trip through JSON'() {
+        setup:
+        ByteBuffer window = ByteBuffer.wrap([9, 0, -1, 16, 9] as byte[])
+        window.position(1)
+        window.limit(4)
+
+        Map<String,AttributeValue> key = [
+                hash : new AttributeValue().withS('user#1'),
+                range: new AttributeValue().withN('1234567890123456789.5'),
+                blob : new AttributeValue().withB(window)]
+
+        when:
+        Map<String,AttributeValue> parsed = ScanCursor.keyFromJson(keyJson(key))
+
+        then:
+        parsed.keySet() == ['hash', 'range', 'blob'] as Set
+        parsed.hash.getS() == 'user#1'
+        parsed.hash.getN() == null
+        parsed.range.getN() == '1234567890123456789.5'
+        parsed.range.getS() == null
+        parsed.blob.getB() == ByteBuffer.wrap([0, -1, 16] as byte[])
+
+        and: 'encoding does not consume the buffer of the key'
+        window.remaining() == 3
+    }
+
+    def 'a cursor without a key has no JSON'() {
+        expect:
+        keyJson(null) == null
+        ScanCursor.keyFromJson(null) == null
+        ScanCursor.start(3, 8).getLastEvaluatedKeyJson() == null
+    }
+
+    def 'unsupported key types are rejected'() {
+        when:
+        keyJson([id: new AttributeValue().withBOOL(true)])
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when:
+        ScanCursor.keyFromJson('{"id":{"BOOL":"true"}}')
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
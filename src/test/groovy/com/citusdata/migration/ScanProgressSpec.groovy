@@ -0,0 +1,84 @@
+package com.citusdata.migration
+
+import java.util.concurrent.ExecutorService
+
+import com.citusdata.migration.datamodel.TableEmitter
+import com.citusdata.migration.datamodel.TableSchema
+import com.merqueo.data.dynamocrawler.UnitTest
+import org.junit.experimental.categories.Category
+import spock.lang.Specification
+
+@Category(UnitTest.class)
+class ScanProgressSpec extends Specification {
+
+    TableEmitter emitter = Mock()
+    List<ScanCursor> saved = []
+    ScanProgress progress
+
+    def setup() {
+        emitter.fetchSchema('events', 'public') >> new TableSchema('events', 'public')
+        emitter.saveScanProgress(_, _) >> { TableSchema tableSchema, ScanCursor cursor -> saved << cursor }
+
+        DynamoDBTableReplicator replicator = new DynamoDBTableReplicator(
+                null, null, null, Mock(ExecutorService), emitter, 'events', 'public')
+        progress = new ScanProgress(replicator, 2)
+    }
+
+    static ScanCursor page(int segment, long sequenceNumber) {
+        return new ScanCursor(segment, 2, sequenceNumber, null, false)
+    }
+
+    static List<String> positions(List<ScanCursor> cursors) {
+        return cursors.collect { "${it.segment}:${it.sequenceNumber}".toString() }
+    }
+
+    def 'cursors of pages loaded in order are saved'() {
+        when:
+        progress.loaded([page(0, 0)])
+        progress.loaded([page(0, 1)])
+
+        then:
+        positions(saved) == ['0:0', '0:1']
+    }
+
+    def 'a page loaded ahead of an earlier page is saved once the gap is loaded'() {
+        when:
+        progress.loaded([page(0, 2)])
+        progress.loaded([page(0, 1)])
+
+        then: 'nothing is saved while page 0 is not loaded'
+        saved.isEmpty()
+
+        when:
+        progress.loaded([page(0, 0)])
+
+        then: 'only the furthest contiguous page is saved'
+        positions(saved) == ['0:2']
+
+        when:
+        progress.loaded([page(0, 4)])
+
+        then:
+        positions(saved) == ['0:2']
+
+        when:
+        progress.loaded([page(0, 3)])
+
+        then:
+        positions(saved) == ['0:2', '0:4']
+    }
+
+    def 'segments advance independently'() {
+        when:
+        progress.loaded([page(1, 0), page(0, 1)])
+
+        then: 'segment 0 waits for its first page'
+        positions(saved) == ['1:0']
+
+        when:
+        progress.loaded([page(1, 2), page(0, 0), page(1, 1)])
+
+        then:
+        positions(saved) == ['1:0', '0:1', '1:2']
+    }
+}
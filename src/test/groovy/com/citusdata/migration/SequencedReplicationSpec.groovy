@@ -0,0 +1,112 @@
+package com.citusdata.migration
+
+import java.util.concurrent.ExecutorService
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue
+import com.amazonaws.services.dynamodbv2.model.Record
+import com.amazonaws.services.dynamodbv2.model.StreamRecord
+import com.citusdata.migration.datamodel.Delete
+import com.citusdata.migration.datamodel.TableColumnType
+import com.citusdata.migration.datamodel.TableEmitter
+import com.citusdata.migration.datamodel.TableModification
+import com.citusdata.migration.datamodel.TableRow
+import com.citusdata.migration.datamodel.TableSchema
+import com.citusdata.migration.datamodel.Upsert
+import com.merqueo.data.dynamocrawler.UnitTest
+import org.junit.experimental.categories.Category
+import spock.lang.Specification
+
+import static com.citusdata.migration.datamodel.TableModificationBatchSpec.table
+
+@Category(UnitTest.class)
+class SequencedReplicationSpec extends Specification {
+
+    TableEmitter emitter = Mock()
+
+    static TableSchema sequencedTable(String tableName) {
+        TableSchema tableSchema = table(tableName)
+        tableSchema.addColumn(TableSchema.SEQUENCE_COLUMN_NAME, TableColumnType.numeric)
+        tableSchema.addColumn(TableSchema.TOMBSTONE_COLUMN_NAME, TableColumnType.bool)
+        return tableSchema
+    }
+
+    DynamoDBTableReplicator replicator(TableSchema tableSchema) {
+        emitter.fetchSchema('events', 'public') >> tableSchema
+
+        DynamoDBTableReplicator replicator = new DynamoDBTableReplicator(
+                null, null, null, Mock(ExecutorService), emitter, 'events', 'public')
+        replicator.setAddColumnEnabled(false)
+        replicator.setSequenced(true)
+        return replicator
+    }
+
+    static Record record(String eventName, String id, String sequenceNumber) {
+        Map<String,AttributeValue> keys = [id: new AttributeValue().withS(id)]
+        StreamRecord streamRecord = new StreamRecord()
+                .withKeys(keys)
+                .withSequenceNumber(sequenceNumber)
+
+        if (eventName != 'REMOVE') {
+            streamRecord.withNewImage(keys + [n: new AttributeValue().withN('7')])
+        }
+
+        return new Record().withEventName(eventName).withDynamodb(streamRecord)
+    }
+
+    def 'a removed item is replaced by a tombstone with its sequence number'() {
+        setup:
+        DynamoDBTableReplicator replicator = replicator(sequencedTable('events'))
+
+        when:
+        List<TableModification> modifications = replicator.modificationsFromRecords([
+                record('MODIFY', 'a', '100'),
+                record('REMOVE', 'a', '101')])
+
+        then:
+        modifications.size() == 2
+        modifications.every { it instanceof Upsert }
+
+        when:
+        TableRow row = ((Upsert) modifications[0]).getNewRow()
+        TableRow tombstone = ((Upsert) modifications[1]).getNewRow()
+
+        then:
+        row.getValue('n').datum == '7'
+        row.getValue(TableSchema.SEQUENCE_COLUMN_NAME).datum == new BigDecimal(100)
+        row.getValue(TableSchema.TOMBSTONE_COLUMN_NAME).datum == false
+
+        tombstone.getValue('id').datum == 'a'
+        tombstone.getValue('n') == null
+        tombstone.getValue(TableSchema.SEQUENCE_COLUMN_NAME).datum == new BigDecimal(101)
+        tombstone.getValue(TableSchema.TOMBSTONE_COLUMN_NAME).datum == true
+    }
+
+    def 'a removed item is deleted when the table is not sequenced'() {
+        setup:
+        DynamoDBTableReplicator replicator = replicator(table('events'))
+        replicator.setSequenced(false)
+
+        when:
+        List<TableModification> modifications = replicator.modificationsFromRecords([
+                record('REMOVE', 'a', '101')])
+
+        then:
+        modifications.size() == 1
+        modifications[0] instanceof Delete
+    }
+
+    def 'rows of a schema without sequence columns are rejected'() {
+        setup:
+        DynamoDBTableReplicator replicator = replicator(table('events'))
+
+        when:
+        replicator.modificationsFromRecords([record(eventName, 'a', '101')])
+
+        then:
+        EmissionException e = thrown()
+        e.message == 'table public.events has no column podyn_seq'
+
+        where:
+        eventName << ['MODIFY', 'REMOVE']
+    }
+}
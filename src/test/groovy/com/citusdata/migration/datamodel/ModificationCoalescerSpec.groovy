@@ -0,0 +1,76 @@
+package com.citusdata.migration.datamodel
+
+import com.merqueo.data.dynamocrawler.UnitTest
+import org.junit.experimental.categories.Category
+import spock.lang.Specification
+
+import static com.citusdata.migration.datamodel.TableModificationBatchSpec.delete
+import static com.citusdata.migration.datamodel.TableModificationBatchSpec.table
+import static com.citusdata.migration.datamodel.TableModificationBatchSpec.upsert
+
+@Category(UnitTest.class)
+class ModificationCoalescerSpec extends Specification {
+
+    def events = table('events')
+
+    static boolean sameModifications(List<TableModification> actual, List<TableModification> expected) {
+        return actual.size() == expected.size() && (0..<actual.size()).every { actual[it].is(expected[it]) }
+    }
+
+    def 'only the last modification to a key is kept'() {
+        setup:
+        def first = upsert(events, 'a', 1)
+        def second = delete(events, 'a')
+        def third = upsert(events, 'a', 2)
+
+        expect:
+        sameModifications(ModificationCoalescer.coalesce([first, second, third]), [third])
+        sameModifications(ModificationCoalescer.coalesce([first, third, second]), [second])
+    }
+
+    def 'keys are kept in the order of their last modification'() {
+        setup:
+        def a1 = upsert(events, 'a', 1)
+        def b1 = upsert(events, 'b', 1)
+        def a2 = delete(events, 'a')
+        def c1 = upsert(events, 'c', 1)
+        def b2 = upsert(events, 'b', 2)
+
+        expect:
+        sameModifications(ModificationCoalescer.coalesce([a1, b1, a2, c1, b2]), [a2, c1, b2])
+    }
+
+    def 'equal keys of different tables are distinct'() {
+        setup:
+        TableSchema archivedEvents = new TableSchema('events', 'archive')
+        archivedEvents.addColumn('id', TableColumnType.text)
+        archivedEvents.addColumn('n', TableColumnType.numeric)
+        archivedEvents.setPrimaryKey(['id'])
+
+        def eventsUpsert = upsert(events, 'a', 1)
+        def clicksUpsert = upsert(table('clicks'), 'a', 2)
+        def archiveDelete = delete(archivedEvents, 'a')
+
+        expect:
+        !events.isSameTable(table('clicks'))
+        !events.isSameTable(archivedEvents)
+        sameModifications(ModificationCoalescer.coalesce([eventsUpsert, clicksUpsert, archiveDelete]),
+                [eventsUpsert, clicksUpsert, archiveDelete])
+    }
+
+    def 'keys written under different versions of a table are the same'() {
+        setup:
+        TableSchema newerEvents = events.withColumns([extra: TableColumnType.text])
+        def older = upsert(events, 'a', 1)
+        def newer = upsert(newerEvents, 'a', 2)
+
+        expect:
+        events.isSameTable(newerEvents)
+        sameModifications(ModificationCoalescer.coalesce([older, newer]), [newer])
+    }
+
+    def 'an empty list stays empty'() {
+        expect:
+        ModificationCoalescer.coalesce([]).isEmpty()
+    }
+}
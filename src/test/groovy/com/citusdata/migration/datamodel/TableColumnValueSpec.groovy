@@ -0,0 +1,78 @@
+package com.citusdata.migration.datamodel
+
+import java.nio.ByteBuffer
+
+import com.merqueo.data.dynamocrawler.UnitTest
+import org.junit.experimental.categories.Category
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ Expected values are a 4-byte length followed by the output of the send
+ function of PostgreSQL 14, e.g. SELECT numeric_send(-12345.678)
+ */
+@Category(UnitTest.class)
+class TableColumnValueSpec extends Specification {
+
+    static String binaryCopyValue(TableColumnType type, Object datum) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+        DataOutputStream out = new DataOutputStream(bytes)
+        new TableColumnValue(type, datum).writeBinaryCopyValue(type, out)
+        out.flush()
+        return bytes.toByteArray().collect { String.format('%02x', it) }.join()
+    }
+
+    @Unroll
+    def 'numeric #value is written like numeric_send'() {
+        expect:
+        binaryCopyValue(TableColumnType.numeric, new BigDecimal(value)) == expected
+
+        where:
+        value               | expected
+        '0'                 | '00000008' + '0000000000000000'
+        '0.00'              | '00000008' + '0000000000000002'
+        '-1'                | '0000000a' + '00010000400000000001'
+        '-12345.678'        | '0000000e' + '0003000140000003000109291a7c'
+        '0.5'               | '0000000a' + '0001ffff000000011388'
+        '0.00012'           | '0000000c' + '0002ffff00000005000107d0'
+        '12345678'          | '0000000c' + '000200010000000004d2162e'
+        '100000000'         | '0000000a' + '00010002000000000001'
+        '1E+20'             | '0000000a' + '00010005000000000001'
+        '1.5E-7'            | '0000000a' + '0001fffe00000008000f'
+        '99999999.99990000' | '0000000e' + '0003000100000008270f270f270f'
+    }
+
+    def 'jsonb is written like jsonb_send'() {
+        expect:
+        binaryCopyValue(TableColumnType.jsonb, '{"a": [1, "x"]}') ==
+                '00000010' + '01' + '7b2261223a205b312c202278225d7d'
+        binaryCopyValue(TableColumnType.jsonb, '{"k": "é"}') ==
+                '0000000c' + '01' + '7b226b223a2022c3a9227d'
+    }
+
+    def 'bytea is written like byteasend'() {
+        setup:
+        byte[] bytes = [0x00, 0xff, 0x10] as byte[]
+        ByteBuffer window = ByteBuffer.wrap([0x09, 0x00, 0xff, 0x10, 0x09] as byte[])
+        window.position(1)
+        window.limit(4)
+        ByteBuffer direct = ByteBuffer.allocateDirect(3)
+        direct.put(bytes)
+        direct.flip()
+
+        expect:
+        binaryCopyValue(TableColumnType.bytea, bytes) == '00000003' + '00ff10'
+        binaryCopyValue(TableColumnType.bytea, ByteBuffer.wrap(bytes)) == '00000003' + '00ff10'
+        binaryCopyValue(TableColumnType.bytea, window) == '00000003' + '00ff10'
+        binaryCopyValue(TableColumnType.bytea, window.slice()) == '00000003' + '00ff10'
+        binaryCopyValue(TableColumnType.bytea, direct) == '00000003' + '00ff10'
+        binaryCopyValue(TableColumnType.bytea, new byte[0]) == '00000000'
+    }
+
+    def 'bool is written like boolsend'() {
+        expect:
+        binaryCopyValue(TableColumnType.bool, true) == '00000001' + '01'
+        binaryCopyValue(TableColumnType.bool, false) == '00000001' + '00'
+        binaryCopyValue(TableColumnType.bool, TableColumnValue.of(true).datum) == '00000001' + '01'
+    }
+}
@@ -0,0 +1,98 @@
+package com.citusdata.migration.datamodel
+
+import com.merqueo.data.dynamocrawler.UnitTest
+import org.junit.experimental.categories.Category
+import spock.lang.Specification
+
+@Category(UnitTest.class)
+class TableModificationBatchSpec extends Specification {
+
+    def events = table('events')
+
+    static TableSchema table(String tableName) {
+        TableSchema tableSchema = new TableSchema(tableName, 'public')
+        tableSchema.addColumn('id', TableColumnType.text)
+        tableSchema.addColumn('n', TableColumnType.numeric)
+        tableSchema.setPrimaryKey(['id'])
+        return tableSchema
+    }
+
+    static Upsert upsert(TableSchema tableSchema, String id, int n) {
+        TableRow row = tableSchema.createRow()
+        row.setValue('id', id)
+        row.setValue('n', new BigDecimal(n))
+        return new Upsert(row)
+    }
+
+    static Insert insert(TableSchema tableSchema, String id) {
+        TableRow row = tableSchema.createRow()
+        row.setValue('id', id)
+        return new Insert(row)
+    }
+
+    static Delete delete(TableSchema tableSchema, String id) {
+        PrimaryKeyValue key = new PrimaryKeyValue(tableSchema)
+        key.setValue('id', id)
+        return new Delete(key)
+    }
+
+    def 'consecutive modifications of the same kind are combined'() {
+        expect:
+        TableModificationBatch.toCommands([
+                upsert(events, 'a', 1),
+                upsert(events, 'b', 2),
+                delete(events, 'c'),
+                delete(events, "it's"),
+                insert(events, 'd')], 1000) == [
+                "INSERT INTO public.events (id, n) VALUES ('a'::text, '1'::numeric), ('b'::text, '2'::numeric) " +
+                        "ON CONFLICT (id) DO UPDATE SET n = EXCLUDED.n",
+                "DELETE FROM public.events WHERE (id) IN (('c'::text), ('it''s'::text))",
+                "INSERT INTO public.events (id, n) VALUES ('d'::text, NULL)"]
+    }
+
+    def 'an upsert run keeps the last row of each key'() {
+        expect:
+        TableModificationBatch.toCommands([
+                upsert(events, 'a', 1),
+                upsert(events, 'b', 2),
+                upsert(events, 'a', 3)], 1000) == [
+                "INSERT INTO public.events (id, n) VALUES ('a'::text, '3'::numeric), ('b'::text, '2'::numeric) " +
+                        "ON CONFLICT (id) DO UPDATE SET n = EXCLUDED.n"]
+    }
+
+    def 'modifications of a key keep their order across runs'() {
+        expect:
+        TableModificationBatch.toCommands([
+                upsert(events, 'a', 1),
+                delete(events, 'a'),
+                upsert(events, 'a', 2)], 1000) == [
+                "INSERT INTO public.events (id, n) VALUES ('a'::text, '1'::numeric) ON CONFLICT (id) DO UPDATE SET n = EXCLUDED.n",
+                "DELETE FROM public.events WHERE (id) IN (('a'::text))",
+                "INSERT INTO public.events (id, n) VALUES ('a'::text, '2'::numeric) ON CONFLICT (id) DO UPDATE SET n = EXCLUDED.n"]
+    }
+
+    def 'a run ends at a different table'() {
+        setup:
+        def clicks = table('clicks')
+
+        expect:
+        TableModificationBatch.toCommands([
+                delete(events, 'a'),
+                delete(clicks, 'a'),
+                delete(events, 'b')], 1000) == [
+                "DELETE FROM public.events WHERE (id) IN (('a'::text))",
+                "DELETE FROM public.clicks WHERE (id) IN (('a'::text))",
+                "DELETE FROM public.events WHERE (id) IN (('b'::text))"]
+    }
+
+    def 'commands contain at most the maximum number of rows'() {
+        when:
+        List<String> commands = TableModificationBatch.toCommands((0..<5).collect { delete(events, "k$it") }, 2)
+
+        then:
+        commands == [
+                "DELETE FROM public.events WHERE (id) IN (('k0'::text), ('k1'::text))",
+                "DELETE FROM public.events WHERE (id) IN (('k2'::text), ('k3'::text))",
+                "DELETE FROM public.events WHERE (id) IN (('k4'::text))"]
+    }
+}
@@ -0,0 +1,60 @@
+package com.citusdata.migration.datamodel
+
+import com.merqueo.data.dynamocrawler.UnitTest
+import org.junit.experimental.categories.Category
+import spock.lang.Specification
+
+import static com.citusdata.migration.datamodel.TableModificationBatchSpec.table
+import static com.citusdata.migration.datamodel.TableModificationBatchSpec.upsert
+
+/**
+ Rows keep the version of the schema they were built with, and are copied
+ with the columns of the newest version among the rows of a batch.
+ */
+@Category(UnitTest.class)
+class TableRowSpec extends Specification {
+
+    TableSchema events = table('events')
+    TableSchema newerSchema = events.withColumns([tags: TableColumnType.text, seen: TableColumnType.bool])
+    TableRow row = upsert(events, 'a', 1).getNewRow()
+
+    static String copyRow(TableRow tableRow, TableSchema copySchema) {
+        StringWriter writer = new StringWriter()
+        tableRow.writeCopyRow(writer, copySchema)
+        return writer.toString()
+    }
+
+    static String binaryCopyRow(TableRow tableRow, TableSchema copySchema) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+        DataOutputStream out = new DataOutputStream(bytes)
+        tableRow.writeBinaryCopyRow(out, copySchema)
+        out.flush()
+        return bytes.toByteArray().collect { String.format('%02x', it) }.join()
+    }
+
+    def 'columns that a row of an older version does not have are NULL in text COPY'() {
+        expect:
+        copyRow(row, events) == 'a\t1'
+        copyRow(row, newerSchema) == 'a\t1\t\\N\t\\N'
+    }
+
+    def 'columns that a row of an older version does not have are NULL in binary COPY'() {
+        setup:
+        String key = '00000001' + '61'
+        String number = '0000000a' + '00010000000000000001'
+
+        expect:
+        binaryCopyRow(row, events) == '0002' + key + number
+        binaryCopyRow(row, newerSchema) == '0004' + key + number + 'ffffffff' + 'ffffffff'
+    }
+
+    def 'rows of the newer version are copied with their new columns'() {
+        setup:
+        TableRow newerRow = upsert(newerSchema, 'b', 2).getNewRow()
+        newerRow.setValue('seen', TableColumnValue.of(true))
+
+        expect:
+        copyRow(newerRow, newerSchema) == 'b\t2\t\\N\ttrue'
+        binaryCopyRow(newerRow, newerSchema).endsWith('ffffffff' + '00000001' + '01')
+    }
+}
@@ -0,0 +1,153 @@
+package com.citusdata.migration.datamodel
+
+import java.nio.charset.StandardCharsets
+
+import com.merqueo.data.dynamocrawler.UnitTest
+import org.junit.experimental.categories.Category
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Category(UnitTest.class)
+class TableSchemaSpec extends Specification {
+
+    static TableSchema table(String tableName, String schemaName = 'public') {
+        TableSchema tableSchema = new TableSchema(tableName, schemaName)
+        tableSchema.addColumn('id', TableColumnType.text)
+        tableSchema.addColumn('n', TableColumnType.numeric)
+        tableSchema.setPrimaryKey(['id'])
+        return tableSchema
+    }
+
+    static int identifierBytes(String quotedName) {
+        String name = quotedName.startsWith('"') ? quotedName[1..-2].replace('""', '"') : quotedName
+        return name.getBytes(StandardCharsets.UTF_8).length
+    }
+
+    def 'changes are merged through a change table with a deleted column'() {
+        setup:
+        TableSchema events = table('events')
+
+        expect:
+        events.getChangeTableName() == 'podyn_changes_events_1969236a'
+        events.createChangeTableDDL() ==
+                'CREATE TEMPORARY TABLE podyn_changes_events_1969236a ON COMMIT DELETE ROWS AS ' +
+                'SELECT id, n, NULL::boolean AS podyn_deleted FROM public.events WITH NO DATA'
+        events.copyIntoChangeTable() == 'COPY podyn_changes_events_1969236a (id, n, podyn_deleted) FROM STDIN'
+        events.toMergeUpsertsFromChangeTable() ==
+                'INSERT INTO public.events (id, n) SELECT id, n FROM podyn_changes_events_1969236a ' +
+                'WHERE NOT podyn_deleted ON CONFLICT (id) DO UPDATE SET n = EXCLUDED.n'
+        events.toMergeDeletesFromChangeTable() ==
+                'DELETE FROM public.events AS target USING podyn_changes_events_1969236a AS change ' +
+                'WHERE change.podyn_deleted AND target.id = change.id'
+    }
+
+    def 'deletes match on every primary key column'() {
+        setup:
+        TableSchema events = table('events')
+        events.addColumn('ts', TableColumnType.numeric)
+        events.setPrimaryKey(['id', 'ts'])
+
+        expect:
+        events.toMergeDeletesFromChangeTable().endsWith(
+                'WHERE change.podyn_deleted AND target.id = change.id AND target.ts = change.ts')
+    }
+
+    def 'batches are merged through a staging table'() {
+        setup:
+        TableSchema events = table('events')
+
+        expect:
+        events.createStagingTableDDL() ==
+                'CREATE TEMPORARY TABLE podyn_staging_events_1969236a (LIKE public.events) ON COMMIT DELETE ROWS'
+        events.toMergeFromStaging(true) ==
+                'INSERT INTO public.events (id, n) SELECT id, n FROM podyn_staging_events_1969236a ' +
+                'ON CONFLICT (id) DO UPDATE SET n = EXCLUDED.n'
+        events.toMergeFromStaging(false) ==
+                'INSERT INTO public.events (id, n) SELECT id, n FROM podyn_staging_events_1969236a ' +
+                'ON CONFLICT (id) DO NOTHING'
+    }
+
+    def 'adding columns creates a new version and leaves older versions unchanged'() {
+        setup:
+        TableSchema events = table('events')
+        String upsert = events.toUpsert()
+        TableRow row = events.createRow()
+        row.setValue('id', 'a')
+
+        when:
+        TableSchema newer = events.withColumns([tags: TableColumnType.jsonb])
+
+        then:
+        newer.getVersion() == events.getVersion() + 1
+        newer.isSameTable(events)
+        newer.toColumnList() == 'id, n, tags'
+        newer.getColumn('tags').ordinal == 2
+        newer.getPrimaryKeyColumns()*.name == ['id']
+
+        events.columnCount() == 2
+        !events.columnExists('tags')
+        events.toColumnList() == 'id, n'
+        events.toUpsert() == upsert
+        row.tableSchema.is(events)
+        row.getValue('id').datum == 'a'
+    }
+
+    def 'sequenced tables only overwrite rows with a lower sequence number'() {
+        setup:
+        TableSchema events = table('events')
+        events.addColumn(TableSchema.SEQUENCE_COLUMN_NAME, TableColumnType.numeric)
+        events.addColumn(TableSchema.TOMBSTONE_COLUMN_NAME, TableColumnType.bool)
+        String onConflict = ' ON CONFLICT (id) DO UPDATE SET n = EXCLUDED.n, ' +
+                'podyn_seq = EXCLUDED.podyn_seq, podyn_tombstone = EXCLUDED.podyn_tombstone ' +
+                'WHERE public.events.podyn_seq IS NULL OR public.events.podyn_seq < EXCLUDED.podyn_seq'
+
+        expect:
+        events.isSequenced()
+        !table('events').isSequenced()
+        events.toOnConflict(true) == onConflict
+        events.toOnConflict(false) == ' ON CONFLICT (id) DO NOTHING'
+        events.toUpsert() ==
+                'INSERT INTO public.events (id, n, podyn_seq, podyn_tombstone) ' +
+                'VALUES (?::text, ?::numeric, ?::numeric, ?::boolean)' + onConflict
+        events.toMergeFromStaging(true) ==
+                'INSERT INTO public.events (id, n, podyn_seq, podyn_tombstone) ' +
+                'SELECT id, n, podyn_seq, podyn_tombstone FROM podyn_staging_events_1969236a' + onConflict
+        events.toMergeUpsertsFromChangeTable().endsWith(onConflict)
+    }
+
+    @Unroll
+    def 'temporary tables of #first and #second are distinct and fit in 63 bytes'() {
+        setup:
+        TableSchema firstTable = table(first, firstSchema)
+        TableSchema secondTable = table(second, secondSchema)
+
+        expect:
+        firstTable.getStagingTableName() != secondTable.getStagingTableName()
+        firstTable.getChangeTableName() != secondTable.getChangeTableName()
+
+        [firstTable, secondTable].every {
+            identifierBytes(it.getStagingTableName()) <= TableSchema.MAX_IDENTIFIER_BYTES &&
+                    identifierBytes(it.getChangeTableName()) <= TableSchema.MAX_IDENTIFIER_BYTES
+        }
+
+        where:
+        first                   | firstSchema | second                  | secondSchema
+        'events'                | 'public'    | 'events'                | 'archive'
+        'a' * 63                | 'public'    | 'a' * 63 + 'b'          | 'public'
+        'a' * 40 + '_2023'      | 'public'    | 'a' * 40 + '_2024'      | 'public'
+        'é' * 40                | 'public'    | 'é' * 41                | 'public'
+        'Events'                | 'public'    | 'events'                | 'public'
+    }
+
+    def 'truncation does not split characters'() {
+        expect:
+        TableSchema.truncateIdentifier('abc', 2) == 'ab'
+        TableSchema.truncateIdentifier('aé', 2) == 'a'
+        TableSchema.truncateIdentifier('aé', 3) == 'aé'
+        TableSchema.truncateIdentifier('a😀b', 4) == 'a'
+        TableSchema.truncateIdentifier('a😀b', 5) == 'a😀'
+
+        and: '63 bytes leave 40 bytes for the table name next to the prefix and hash'
+        table('é' * 40).getStagingTableName() ==~ /"podyn_staging_é{20}_[0-9a-f]{8}"/
+    }
+}